@@ -6,10 +6,21 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * 表示基于数据源实现的自增长ID
+ * 表示基于数据源实现的自增长ID。
+ * <p>
+ * 通过计数器集合按号段分配，每次预留 blockSize 个，进程重启时未用完的号段会被跳过，因此 ID 递增但不保证连续。
  */
 @Target({ElementType.FIELD, ElementType.TYPE})
 @Retention(value = RetentionPolicy.RUNTIME)
 public @interface AutoIncrementId {
-  // TODO initial & step, by default, initial/step = 1
+
+  /**
+   * 每次从计数器集合预留的 ID 个数
+   */
+  int blockSize() default 100;
+
+  /**
+   * 计数器集合名称，每个实体集合对应其中一个文档
+   */
+  String counters() default "_counters";
 }
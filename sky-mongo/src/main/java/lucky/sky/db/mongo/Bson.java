@@ -13,4 +13,9 @@ import java.lang.annotation.Target;
 public @interface Bson {
 
     String value() default "";
+
+    /**
+     * 延迟解码，仅对 List 属性有效：解码时只保留该字段的原始 BSON 字节，首次访问列表时才解码
+     */
+    boolean lazy() default false;
 }
@@ -0,0 +1,14 @@
+package lucky.sky.db.mongo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 构造函数注解，解码时通过该构造函数创建实体，参数按名称对应属性，适用于没有 setter 的不可变实体
+ */
+@Target(ElementType.CONSTRUCTOR)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface BsonConstructor {
+}
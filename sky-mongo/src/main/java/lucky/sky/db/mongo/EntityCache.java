@@ -0,0 +1,24 @@
+package lucky.sky.db.mongo;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 为实体开启按主键的读缓存（进程内），MgoDao 按主键读取时先查缓存，按主键写入时使缓存失效。
+ * <p>
+ * db.mongo.conf 中的 &lt;cache entity="实体类全名" spec="..."/&gt; 优先于注解；
+ * 缓存只按过期时间与其它进程的写入保持一致，适用于很少修改的基础数据。
+ * 缓存保存映射后的文档，每次命中都解码为新的实体对象，修改返回的实体（未保存）不会影响其它读取。
+ */
+@Target(ElementType.TYPE)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface EntityCache {
+
+  /**
+   * Guava CacheBuilderSpec 格式，如 maximumSize=10000,expireAfterWrite=10m；
+   * maximumWeight 按文档 BSON 字节数计算
+   */
+  String spec() default "maximumSize=10000,expireAfterWrite=10m";
+}
@@ -0,0 +1,97 @@
+package lucky.sky.db.mongo;
+
+/**
+ * 按类预先计算的字段名索引，解码时把字段名直接定位到 FieldInfo 槽位。
+ * <p>
+ * 先按声明顺序猜测下一个字段（由 ObjectCodec 写出的文档字段顺序与声明顺序一致），
+ * 猜错时使用无冲突（完美）哈希表定位：哈希只取名称长度和首、中、尾三个字符，
+ * 不计算 String.hashCode，命中后只需一次 equals 确认。
+ */
+final class FieldNameIndex {
+
+    private static final int MAX_SEED = 64;
+
+    private final ObjectMethodCache.ObjectMethodUtil.FieldInfo[] fields;
+    private final int[] table;
+    private final int mask;
+    private final int seed;
+
+    FieldNameIndex(ObjectMethodCache.ObjectMethodUtil.FieldInfo[] fields) {
+        this.fields = fields;
+
+        int[] found = null;
+        int foundSeed = 0;
+        int size = tableSize(fields.length);
+        // 表大小最多放大到 8 倍，仍找不到无冲突的种子时退化为线性查找
+        for (int s = size; found == null && s <= size * 8; s <<= 1) {
+            for (int seed = 1; seed <= MAX_SEED; seed++) {
+                int[] candidate = build(s, seed);
+                if (candidate != null) {
+                    found = candidate;
+                    foundSeed = seed;
+                    break;
+                }
+            }
+        }
+        this.table = found;
+        this.mask = found == null ? 0 : found.length - 1;
+        this.seed = foundSeed;
+    }
+
+    private static int tableSize(int count) {
+        int size = 2;
+        while (size < count * 2) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    private int[] build(int size, int seed) {
+        int[] slots = new int[size];
+        for (int i = 0; i < fields.length; i++) {
+            int h = hash(fields[i].name, seed) & (size - 1);
+            if (slots[h] != 0) {
+                return null;
+            }
+            // 0 表示空槽，所以存 index + 1
+            slots[h] = i + 1;
+        }
+        return slots;
+    }
+
+    private static int hash(String name, int seed) {
+        int length = name.length();
+        if (length == 0) {
+            return 0;
+        }
+        int h = length * 0x9E3779B1;
+        h ^= name.charAt(0) * seed;
+        h ^= name.charAt(length >> 1) << 7;
+        h ^= name.charAt(length - 1) * (seed * 31 + 17);
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * 按字段名查找，hint 为预期的槽位（通常是上一个字段的下一位），未映射的字段返回 null
+     */
+    ObjectMethodCache.ObjectMethodUtil.FieldInfo find(String name, int hint) {
+        if (hint >= 0 && hint < fields.length && sameName(hint, name)) {
+            return fields[hint];
+        }
+        if (table != null) {
+            int slot = table[hash(name, seed) & mask] - 1;
+            return slot >= 0 && sameName(slot, name) ? fields[slot] : null;
+        }
+        for (int i = 0; i < fields.length; i++) {
+            if (sameName(i, name)) {
+                return fields[i];
+            }
+        }
+        return null;
+    }
+
+    private boolean sameName(int slot, String name) {
+        String expected = fields[slot].name;
+        return expected == name || expected.equals(name);
+    }
+}
@@ -0,0 +1,88 @@
+package lucky.sky.db.mongo;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.function.Function;
+
+/**
+ * 延迟解码的列表，持有字段的原始 BSON 字节，首次访问时才解码为 ArrayList。
+ * <p>
+ * 解码后释放原始字节，之后的读写都委托给解码出的列表。
+ */
+final class LazyBsonList extends AbstractList<Object> implements RandomAccess {
+
+    private byte[] raw;
+    private Function<byte[], List<Object>> decoder;
+    private volatile List<Object> list;
+
+    /**
+     * @param raw     包含该数组字段的单字段文档字节
+     * @param decoder 按字段绑定的解码函数
+     */
+    LazyBsonList(byte[] raw, Function<byte[], List<Object>> decoder) {
+        this.raw = raw;
+        this.decoder = decoder;
+    }
+
+    /**
+     * 是否已经解码
+     */
+    boolean isMaterialized() {
+        return list != null;
+    }
+
+    private List<Object> materialize() {
+        List<Object> l = list;
+        if (l == null) {
+            synchronized (this) {
+                l = list;
+                if (l == null) {
+                    l = decoder.apply(raw);
+                    if (!(l instanceof ArrayList)) {
+                        l = new ArrayList<>(l);
+                    }
+                    list = l;
+                    raw = null;
+                    decoder = null;
+                }
+            }
+        }
+        return l;
+    }
+
+    @Override
+    public Object get(int index) {
+        return materialize().get(index);
+    }
+
+    @Override
+    public int size() {
+        return materialize().size();
+    }
+
+    @Override
+    public Object set(int index, Object element) {
+        return materialize().set(index, element);
+    }
+
+    @Override
+    public void add(int index, Object element) {
+        materialize().add(index, element);
+        modCount++;
+    }
+
+    @Override
+    public Object remove(int index) {
+        Object old = materialize().remove(index);
+        modCount++;
+        return old;
+    }
+
+    @Override
+    public void clear() {
+        materialize().clear();
+        modCount++;
+    }
+}
@@ -1,18 +1,49 @@
 package lucky.sky.db.mongo;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.Lists;
+import com.google.common.reflect.TypeToken;
 import com.mongodb.*;
 import com.mongodb.MongoClient;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCursor;
 import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.Setter;
+import lucky.sky.db.mongo.concurrent.BatchLoader;
+import lucky.sky.db.mongo.concurrent.MongoExecutors;
+import lucky.sky.db.mongo.concurrent.SingleFlight;
+import lucky.sky.db.mongo.id.IdGenerators;
+import lucky.sky.db.mongo.id.MongoCounterSegmentSource;
+import lucky.sky.db.mongo.id.SegmentIdGenerator;
+import lucky.sky.db.mongo.id.SegmentSource;
+import lucky.sky.db.mongo.lang.BatchInsertException;
 import lucky.sky.db.mongo.lang.Exceptions;
+import lucky.sky.db.mongo.scan.ParallelScanner;
+import lucky.sky.db.mongo.scan.ScanOptions;
+import lucky.sky.db.mongo.scan.ScanProgress;
+import lucky.sky.db.mongo.write.BulkWriter;
+import lucky.sky.db.mongo.write.BulkWriterOptions;
+import lucky.sky.db.mongo.write.UpdateCoalescer;
+import lucky.sky.db.mongo.write.WriteBehindOptions;
+import lucky.sky.db.mongo.write.WriteBehindQueue;
+import lucky.sky.db.mongo.write.WriteBehindStats;
+import org.bson.BasicBSONEncoder;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonType;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.IdGenerator;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.AdvancedDatastore;
 import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.DatastoreImpl;
 import org.mongodb.morphia.Key;
 import org.mongodb.morphia.Morphia;
 import org.mongodb.morphia.dao.BasicDAO;
 import org.mongodb.morphia.dao.DAO;
+import org.mongodb.morphia.mapping.Mapper;
 import org.mongodb.morphia.mapping.MapperOptions;
 import org.mongodb.morphia.query.Query;
 import org.mongodb.morphia.query.QueryResults;
@@ -23,7 +54,25 @@ import org.slf4j.LoggerFactory;
 
 import java.lang.reflect.ParameterizedType;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 /**
  * 通用 MongoDB 数据访问对象基类。
@@ -35,14 +84,55 @@ import java.util.List;
 public class MgoDao<T extends DbEntity<K>, K> {
 
     private static final Logger log = LoggerFactory.getLogger(MgoDao.class);
+    private static final DBObject ID_PROJECTION = new BasicDBObject(Mapper.ID_KEY, 1);
+    private static final int CACHE_VERSION_STRIPES = 64;
     private DAO<T, K> dao;
     private boolean isAutoIncId;
+    private AutoIncrementId autoIncId;
+    /**
+     * 自增 ID 的号段生成器，按集合名（kind）区分
+     */
+    private final ConcurrentMap<String, SegmentIdGenerator> autoIncGenerators = new ConcurrentHashMap<>();
+    private volatile WriteBehindQueue<T> writeBehind;
+    private volatile UpdateCoalescer<T> updateCoalescer;
     /**
      * 自增 ID 初始值
      */
     @Getter(AccessLevel.PROTECTED)
     @Setter(AccessLevel.PROTECTED)
     private int idSeed = 1;
+    /**
+     * 批量按主键查询时每个 $in 查询的主键数
+     */
+    @Getter(AccessLevel.PROTECTED)
+    @Setter(AccessLevel.PROTECTED)
+    private int multiGetChunkSize = 500;
+    /**
+     * 实体通过 @IdGeneratedBy 指定的主键生成器，插入时 id 为空则生成
+     */
+    private IdGenerator idGenerator;
+    private Class<?> idType;
+    /**
+     * 按主键的读缓存，未配置 @EntityCache 或 db.mongo.conf 中的 cache 时为 null；
+     * 缓存实体映射后的文档，每次命中解码为新的实体对象，调用方修改返回的实体不影响缓存
+     */
+    private Cache<Object, DBObject> cache;
+    /**
+     * 按主键哈希分段的失效版本号，写入后递增；加载期间版本变化时不保留加载结果，避免旧数据在失效后被放回缓存
+     */
+    private final AtomicLongArray cacheVersions = new AtomicLongArray(CACHE_VERSION_STRIPES);
+    /**
+     * 合并相同的并发读取，enableSingleFlight 后生效
+     */
+    private volatile SingleFlight<String, Object> singleFlight;
+    /**
+     * 按查询条件缓存计数，enableCountCache 后生效
+     */
+    private volatile Cache<String, Long> countCache;
+    /**
+     * 按主键的批量加载器，enableBatchLoading 或首次 openBatchScope 时创建
+     */
+    private volatile BatchLoader<K, T> batchLoader;
 
     /**
      * Create a new BasicDAO
@@ -114,7 +204,193 @@ public class MgoDao<T extends DbEntity<K>, K> {
     }
 
     protected void init() {
-        isAutoIncId = getEntityClass().getAnnotation(AutoIncrementId.class) != null;
+        autoIncId = getEntityClass().getAnnotation(AutoIncrementId.class);
+        isAutoIncId = autoIncId != null;
+        idGenerator = IdGenerators.of(getEntityClass());
+        if (idGenerator != null || isAutoIncId) {
+            idType = TypeToken.of(getEntityClass())
+                    .resolveType(DbEntity.class.getTypeParameters()[0]).getRawType();
+        }
+        cache = buildCache();
+    }
+
+    private Cache<Object, DBObject> buildCache() {
+        String spec = MongoConfig.getCacheSpec(getEntityClass().getName());
+        if (spec == null) {
+            EntityCache annotation = getEntityClass().getAnnotation(EntityCache.class);
+            if (annotation == null) {
+                return null;
+            }
+            spec = annotation.spec();
+        }
+        CacheBuilder<Object, Object> builder = CacheBuilder.from(spec).recordStats();
+        if (spec.contains("maximumWeight")) {
+            return builder.weigher((Object id, DBObject doc) -> new BasicBSONEncoder().encode(doc).length).build();
+        }
+        return builder.build();
+    }
+
+    private void invalidate(Object id) {
+        if (cache != null && id != null) {
+            cacheVersions.incrementAndGet(cacheStripe(id));
+            cache.invalidate(id);
+        }
+    }
+
+    private void invalidateAll() {
+        if (cache != null) {
+            for (int i = 0; i < CACHE_VERSION_STRIPES; i++) {
+                cacheVersions.incrementAndGet(i);
+            }
+            cache.invalidateAll();
+        }
+    }
+
+    private static int cacheStripe(Object id) {
+        int h = id.hashCode();
+        return (h ^ (h >>> 16)) & (CACHE_VERSION_STRIPES - 1);
+    }
+
+    /**
+     * 加载前记录各分段的版本号
+     */
+    private long[] cacheStamp() {
+        long[] stamp = new long[CACHE_VERSION_STRIPES];
+        for (int i = 0; i < CACHE_VERSION_STRIPES; i++) {
+            stamp[i] = cacheVersions.get(i);
+        }
+        return stamp;
+    }
+
+    /**
+     * 放入查询返回的原始文档（不由实体重新映射，避免在读取时触发 @PrePersist 等回调）；
+     * 放入后再检查版本号，加载期间发生过写入则移除，
+     * 与写入方“先递增版本号再失效”配合，无论两者谁先执行，旧数据都不会留在缓存中
+     */
+    private void cachePut(Object id, DBObject doc, long[] stamp) {
+        cache.put(id, doc);
+        int stripe = cacheStripe(id);
+        if (cacheVersions.get(stripe) != stamp[stripe]) {
+            cache.invalidate(id);
+        }
+    }
+
+    private T fromCache(DBObject doc) {
+        Mapper mapper = cacheMapper();
+        return mapper.fromDBObject(dao.getDatastore(), getEntityClass(), doc, mapper.createEntityCache());
+    }
+
+    private Mapper cacheMapper() {
+        return ((DatastoreImpl) dao.getDatastore()).getMapper();
+    }
+
+    /**
+     * 使指定主键的缓存失效，用于绕过本 DAO 的写入（如 BulkWriter、其它进程）
+     */
+    protected void invalidateCache(K id) {
+        invalidate(id);
+    }
+
+    protected void invalidateCache() {
+        invalidateAll();
+    }
+
+    /**
+     * 开启并发读取合并：get、findOne 以及 createMgoQuery 创建的查询的 get / asList，
+     * 条件相同的并发调用只发送一次查询并共享结果（同一实体对象），调用方不应修改返回的实体
+     */
+    protected synchronized void enableSingleFlight() {
+        if (singleFlight == null) {
+            singleFlight = new SingleFlight<>();
+        }
+    }
+
+    /**
+     * 并发读取合并的执行与共享次数，未开启时返回 null
+     */
+    protected SingleFlight<String, Object> getSingleFlight() {
+        return singleFlight;
+    }
+
+    /**
+     * 开启自动批量加载：各线程在 windowMicros 微秒内的 get(id) 合并为一次 $in 查询，
+     * 每次 get 最多因此多等待一个窗口
+     *
+     * @param windowMicros 收集窗口（微秒），0 表示只在 openBatchScope 范围内合并
+     * @param maxBatchSize 单次查询的主键数上限，不超过 multiGetChunkSize
+     */
+    protected synchronized void enableBatchLoading(long windowMicros, int maxBatchSize) {
+        // 每批只发送一次 $in 查询，不再拆分到查询线程池，避免在池内线程中等待池内任务
+        batchLoader = new BatchLoader<>(this::getAllFromDb, windowMicros, Math.min(maxBatchSize, multiGetChunkSize));
+    }
+
+    protected void enableBatchLoading() {
+        enableBatchLoading(1000, multiGetChunkSize);
+    }
+
+    private BatchLoader<K, T> batchLoader() {
+        BatchLoader<K, T> loader = batchLoader;
+        if (loader == null) {
+            synchronized (this) {
+                if (batchLoader == null) {
+                    enableBatchLoading(0, multiGetChunkSize);
+                }
+                loader = batchLoader;
+            }
+        }
+        return loader;
+    }
+
+    /**
+     * 开启当前线程的批处理范围，范围内 getAsync 的请求在范围结束（或调用 get）时以一次 $in 查询加载：
+     * <pre>
+     * try (BatchLoader.Scope scope = openBatchScope()) {
+     *     orders.forEach(o -&gt; futures.add(getAsync(o.getUserId())));
+     * }
+     * </pre>
+     */
+    protected BatchLoader<K, T>.Scope openBatchScope() {
+        return batchLoader().openScope();
+    }
+
+    /**
+     * 按主键异步获取；在批处理范围内或开启自动批量加载后与其它请求合并查询，否则立即查询
+     */
+    public CompletableFuture<T> getAsync(K id) {
+        DBObject cached = cache == null ? null : cache.getIfPresent(id);
+        if (cached != null) {
+            return CompletableFuture.completedFuture(fromCache(cached));
+        }
+        // 批量加载通过 getAllFromDb 放入缓存
+        BatchLoader<K, T> loader = batchLoader;
+        return loader != null && loader.isBatching() ? loader.loadAsync(id)
+                : CompletableFuture.completedFuture(get(id));
+    }
+
+    private T findOneShared(Query<T> q) {
+        SingleFlight<String, Object> flight = singleFlight;
+        return flight == null ? q.get() : (T) flight.execute(MgoQuery.flightKey("one", q), q::get);
+    }
+
+    /**
+     * 实体缓存的命中统计，未开启缓存时返回 null
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? null : cache.stats();
+    }
+
+    private void assignId(T entity) {
+        if (idGenerator != null && entity.getId() == null) {
+            entity.setId((K) IdGenerators.convert(idGenerator.generate(), idType));
+        }
+    }
+
+    private void assignIds(Iterable<T> entities) {
+        if (idGenerator != null) {
+            for (T entity : entities) {
+                assignId(entity);
+            }
+        }
     }
 
     /**
@@ -128,6 +404,132 @@ public class MgoDao<T extends DbEntity<K>, K> {
         return new MgoUpdater<>(dao.createUpdateOperations());
     }
 
+    /**
+     * 创建批量写入器，插入的实体按本 DAO 的规则分配主键（@AutoIncrementId、@IdGeneratedBy）
+     */
+    protected BulkWriter<T> createBulkWriter(BulkWriterOptions options) {
+        Mapper mapper = ((DatastoreImpl) dao.getDatastore()).getMapper();
+        return new BulkWriter<>(dao.getCollection(), mapper, options, this::prepareInsert);
+    }
+
+    protected BulkWriter<T> createBulkWriter() {
+        return createBulkWriter(new BulkWriterOptions());
+    }
+
+    /**
+     * 开启异步写入，之后 saveBehind / updateByIdBehind 使用该配置；已开启时先关闭原队列（写完剩余操作）
+     */
+    protected synchronized void enableWriteBehind(WriteBehindOptions options) {
+        closeWriteBehind();
+        BulkWriterOptions writerOptions = new BulkWriterOptions();
+        writerOptions.setMaxOperations(Integer.MAX_VALUE);
+        writerOptions.setWriteConcern(options.getWriteConcern());
+        writeBehind = new WriteBehindQueue<>(dao.getCollection().getName(), createBulkWriter(writerOptions),
+                options);
+    }
+
+    private WriteBehindQueue<T> writeBehind() {
+        WriteBehindQueue<T> queue = writeBehind;
+        if (queue == null) {
+            synchronized (this) {
+                if (writeBehind == null) {
+                    enableWriteBehind(new WriteBehindOptions());
+                }
+                queue = writeBehind;
+            }
+        }
+        return queue;
+    }
+
+    /**
+     * 异步保存：实体在调用线程中完成映射后放入队列，由后台线程批量写入，调用返回时尚未写入数据库。
+     * 队列满时最多等待 offerTimeoutMillis，超时抛出 RejectedExecutionException。
+     * 实体缓存在入队时失效，写入完成前的读取可能重新缓存旧值，直到过期
+     */
+    protected void saveBehind(T entity) {
+        writeBehind().save(entity);
+        invalidate(entity.getId());
+    }
+
+    /**
+     * 异步按主键更新，语义同 saveBehind
+     */
+    protected void updateByIdBehind(K id, UpdateOperations<T> ops) {
+        writeBehind().updateById(id, ops);
+        invalidate(id);
+    }
+
+    /**
+     * 异步写入的运行指标，未开启时返回 null
+     */
+    protected WriteBehindStats getWriteBehindStats() {
+        WriteBehindQueue<T> queue = writeBehind;
+        return queue == null ? null : queue.getStats();
+    }
+
+    /**
+     * 关闭异步写入并等待队列中的操作写完；JVM 退出时会自动执行
+     */
+    protected synchronized void closeWriteBehind() {
+        if (writeBehind != null) {
+            writeBehind.close();
+            writeBehind = null;
+        }
+    }
+
+    /**
+     * 开启更新合并，已开启时先关闭原合并器（发送剩余更新）
+     *
+     * @param windowMillis   合并窗口（毫秒）
+     * @param maxPendingKeys 窗口内待发送的文档数上限
+     */
+    protected synchronized void enableUpdateCoalescing(long windowMillis, int maxPendingKeys) {
+        closeUpdateCoalescing();
+        BulkWriterOptions writerOptions = new BulkWriterOptions();
+        writerOptions.setMaxOperations(Integer.MAX_VALUE);
+        updateCoalescer = new UpdateCoalescer<>(dao.getCollection(), createBulkWriter(writerOptions),
+                windowMillis, maxPendingKeys);
+    }
+
+    /**
+     * 合并后按主键更新：同一主键在窗口（默认 200 毫秒）内的多次 $inc / $set / $max / $min 合并为一次写入，
+     * 调用返回时尚未写入数据库。窗口内的更新只在内存中，JVM 正常退出时发送，被强制结束时丢失；
+     * 整批发送失败的更新在下一个窗口重试（可能重复执行），服务端拒绝的更新只记录日志，不通知调用方。
+     * 与窗口中已有的更新无法合并时会先同步发送已有部分，失败时异常抛给本次调用，本次的更新不生效
+     */
+    protected void updateByIdCoalesced(K id, UpdateOperations<T> ops) {
+        UpdateCoalescer<T> coalescer = updateCoalescer;
+        if (coalescer == null) {
+            synchronized (this) {
+                if (updateCoalescer == null) {
+                    enableUpdateCoalescing(200, 10000);
+                }
+                coalescer = updateCoalescer;
+            }
+        }
+        coalescer.updateById(id, ops);
+        invalidate(id);
+    }
+
+    /**
+     * 关闭更新合并并发送剩余的更新
+     */
+    protected synchronized void closeUpdateCoalescing() {
+        if (updateCoalescer != null) {
+            updateCoalescer.close();
+            updateCoalescer = null;
+        }
+    }
+
+    private void prepareInsert(T entity) {
+        if (isAutoIncId) {
+            AdvancedDatastore ds = (AdvancedDatastore) dao.getDatastore();
+            entity.setId((K) IdGenerators.convert(autoIncGenerator(ds, null).nextId(), idType));
+        } else {
+            assignId(entity);
+        }
+    }
+
     /**
      * The type of entities for this DAO
      */
@@ -138,14 +540,15 @@ public class MgoDao<T extends DbEntity<K>, K> {
     /**
      * 插入指定实体。 与 save 方法不同的是，save 方法对于已经存在的 key，将进行 update；而 insert 将抛出 DuplicateKeyException 异常。 对于具有
      *
-     * @AutoIncrementId 注解的类，将基于数据库中当前最大 _id 值计算下一个值，此实现目的是为提供简单、便捷的自增主键； 内部实现为乐观并发，即当冲突时进行尝试，默认尝试 10
-     * 次，因此此模式不适合大数据量、高并发场景，此时请使用分布式发号器。
+     * @AutoIncrementId 注解的类，主键由计数器集合按号段预留后在内存中分配，一次 findAndModify 可供 blockSize 次插入使用；
+     * 计数器首次使用时以集合中当前最大 _id 为起点。
      */
     protected Key<T> insertEntity(T entity) {
         AdvancedDatastore ds = (AdvancedDatastore) dao.getDatastore();
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entity, null, null);
         } else {
+            assignId(entity);
             return ds.insert(entity);
         }
     }
@@ -155,6 +558,7 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entity, null, wc);
         } else {
+            assignId(entity);
             return ds.insert(entity, wc);
         }
     }
@@ -164,35 +568,21 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entity, kind, null);
         } else {
+            assignId(entity);
             return ds.insert(kind, entity);
         }
     }
 
     /**
-     * @param ds
-     * @param entity
-     * @param kind
-     * @param wc
-     * @return
+     * 自增 ID 由计数器集合按号段分配，发号在内存中无锁完成；
+     * 仅当集合中存在绕过计数器写入的主键时才会冲突，此时跳过该 ID 重试，最多 10 次
      */
     private Key<T> insertWithAutoIncId(AdvancedDatastore ds, T entity, String kind, WriteConcern wc) {
-        // 乐观并发控制，重试 10 次之后快速失败，避免极端情况下，饥饿死
-        //
-        // TODO: to read from config
+        SegmentIdGenerator generator = autoIncGenerator(ds, kind);
         int retryTimes = 10;
-        Integer nextId;
-        while (retryTimes > 0) {
-            Key<T> lastKey = ds.find(dao.getEntityClass()).retrievedFields(true, "_id").order("-_id")
-                    .limit(1).getKey();
-            if (lastKey != null) {
-                // TODO: how about Long?
-                nextId = (Integer) lastKey.getId();
-                nextId++;
-            } else {
-                nextId = idSeed;
-            }
-            entity.setId((K) nextId);
-            //
+        while (true) {
+            K nextId = (K) IdGenerators.convert(generator.nextId(), idType);
+            entity.setId(nextId);
             try {
                 if (kind != null) {
                     return ds.insert(kind, entity);
@@ -209,29 +599,100 @@ public class MgoDao<T extends DbEntity<K>, K> {
                 }
             }
         }
+    }
+
+    private SegmentIdGenerator autoIncGenerator(AdvancedDatastore ds, String kind) {
+        String collection = kind != null ? kind : dao.getCollection().getName();
+        SegmentIdGenerator generator = autoIncGenerators.get(collection);
+        if (generator == null) {
+            generator = autoIncGenerators.computeIfAbsent(collection, key -> {
+                DB db = ds.getDB();
+                SegmentSource source = new MongoCounterSegmentSource(
+                        db.getCollection(autoIncId.counters()), k -> maxNumericId(db.getCollection(k)));
+                return new SegmentIdGenerator(source, key, autoIncId.blockSize());
+            });
+        }
+        return generator;
+    }
 
-        // should never reach here
-        return null;
+    /**
+     * 集合中当前最大的数值 _id，作为计数器的初始值；没有数据时为 idSeed - 1
+     */
+    private long maxNumericId(DBCollection collection) {
+        long max = idSeed - 1;
+        try (DBCursor cursor = collection.find(new BasicDBObject(), new BasicDBObject("_id", 1))
+                .sort(new BasicDBObject("_id", -1)).limit(1)) {
+            if (cursor.hasNext()) {
+                Object id = cursor.next().get("_id");
+                if (id instanceof Number) {
+                    max = Math.max(max, ((Number) id).longValue());
+                }
+            }
+        }
+        return max;
     }
 
     private Iterable<Key<T>> insertWithAutoIncId(AdvancedDatastore ds, T[] entities, String kind,
                                                  WriteConcern wc) {
-        List<Key<T>> keys = new ArrayList<>();
-        for (T ent : entities) {
-            Key<T> key = insertWithAutoIncId(ds, ent, kind, wc);
-            keys.add(key);
-        }
-        return keys;
+        return insertWithAutoIncId(ds, Arrays.asList(entities), kind, wc);
     }
 
+    /**
+     * 批量插入：一次预留与实体数量相同的连续 ID，再通过一次批量写入全部插入；
+     * 写入失败时按预留的 ID 查询实际写入的部分，通过 BatchInsertException 报告
+     */
     private Iterable<Key<T>> insertWithAutoIncId(AdvancedDatastore ds, Iterable<T> entities,
                                                  String kind, WriteConcern wc) {
-        List<Key<T>> keys = new ArrayList<>();
-        for (T ent : entities) {
-            Key<T> key = insertWithAutoIncId(ds, ent, kind, wc);
-            keys.add(key);
+        List<T> list = new ArrayList<>();
+        entities.forEach(list::add);
+        if (list.size() <= 1) {
+            List<Key<T>> keys = new ArrayList<>();
+            for (T ent : list) {
+                keys.add(insertWithAutoIncId(ds, ent, kind, wc));
+            }
+            return keys;
+        }
+
+        long start = autoIncGenerator(ds, kind).nextBlock(list.size());
+        List<Object> ids = new ArrayList<>(list.size());
+        for (int i = 0; i < list.size(); i++) {
+            K id = (K) IdGenerators.convert(start + i, idType);
+            list.get(i).setId(id);
+            ids.add(id);
+        }
+        try {
+            // wc 为 null 时使用实体默认的 WriteConcern
+            if (kind != null) {
+                return ds.insert(kind, list, wc);
+            } else {
+                return ds.insert(list, wc);
+            }
+        } catch (MongoException ex) {
+            throw batchInsertFailure(ds, kind, ids, ex);
         }
-        return keys;
+    }
+
+    private BatchInsertException batchInsertFailure(AdvancedDatastore ds, String kind, List<Object> ids,
+                                                    MongoException cause) {
+        DBCollection collection = kind != null ? ds.getDB().getCollection(kind) : dao.getCollection();
+        Set<Object> landed = new HashSet<>();
+        try (DBCursor cursor = collection.find(
+                new BasicDBObject("_id", new BasicDBObject("$in", ids)), new BasicDBObject("_id", 1))) {
+            while (cursor.hasNext()) {
+                landed.add(cursor.next().get("_id"));
+            }
+        } catch (MongoException ex) {
+            cause.addSuppressed(ex);
+            return new BatchInsertException("batch insert of " + getEntityClass().getName()
+                    + " failed, inserted ids unknown", Collections.emptyList(), ids, cause);
+        }
+        List<Object> inserted = new ArrayList<>(landed.size());
+        List<Object> failed = new ArrayList<>(ids.size() - landed.size());
+        for (Object id : ids) {
+            (landed.contains(id) ? inserted : failed).add(id);
+        }
+        return new BatchInsertException(String.format("batch insert of %s failed, %d of %d inserted",
+                getEntityClass().getName(), inserted.size(), ids.size()), inserted, failed, cause);
     }
 
     protected Iterable<Key<T>> insertEntities(T... entities) {
@@ -239,6 +700,7 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entities, null, null);
         } else {
+            assignIds(Arrays.asList(entities));
             return ds.insert(entities);
         }
     }
@@ -248,6 +710,7 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entities, null, wc);
         } else {
+            assignIds(entities);
             return ds.insert(entities, wc);
         }
     }
@@ -257,6 +720,7 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entities, kind, null);
         } else {
+            assignIds(entities);
             return ds.insert(kind, entities);
         }
     }
@@ -266,6 +730,7 @@ public class MgoDao<T extends DbEntity<K>, K> {
         if (isAutoIncId) {
             return insertWithAutoIncId(ds, entities, kind, wc);
         } else {
+            assignIds(entities);
             return ds.insert(kind, entities, wc);
         }
     }
@@ -274,14 +739,20 @@ public class MgoDao<T extends DbEntity<K>, K> {
      * Saves the entity; either inserting or overriding the existing document
      */
     protected Key<T> save(T entity) {
-        return dao.save(entity);
+        assignId(entity);
+        Key<T> key = dao.save(entity);
+        invalidate(key.getId());
+        return key;
     }
 
     /**
      * Saves the entity; either inserting or overriding the existing document
      */
     protected Key<T> save(T entity, WriteConcern wc) {
-        return dao.save(entity, wc);
+        assignId(entity);
+        Key<T> key = dao.save(entity, wc);
+        invalidate(key.getId());
+        return key;
     }
 
     /**
@@ -290,7 +761,9 @@ public class MgoDao<T extends DbEntity<K>, K> {
     protected UpdateResults updateFirst(Query<T> q, UpdateOperations<T> ops) {
         UpdateOperations<T> realOps =
                 (ops instanceof MgoUpdater) ? ((MgoUpdater) ops).updateOperations() : ops;
-        return dao.updateFirst(q, realOps);
+        UpdateResults results = dao.updateFirst(q, realOps);
+        invalidateAll();
+        return results;
     }
 
     /**
@@ -299,35 +772,45 @@ public class MgoDao<T extends DbEntity<K>, K> {
     protected UpdateResults update(Query<T> q, UpdateOperations<T> ops) {
         UpdateOperations<T> realOps =
                 (ops instanceof MgoUpdater) ? ((MgoUpdater) ops).updateOperations() : ops;
-        return dao.update(q, realOps);
+        UpdateResults results = dao.update(q, realOps);
+        invalidateAll();
+        return results;
     }
 
     /**
      * Deletes the entity
      */
     protected WriteResult delete(T entity) {
-        return dao.delete(entity);
+        WriteResult result = dao.delete(entity);
+        invalidate(entity.getId());
+        return result;
     }
 
     /**
      * Deletes the entity
      */
     protected WriteResult delete(T entity, WriteConcern wc) {
-        return dao.delete(entity, wc);
+        WriteResult result = dao.delete(entity, wc);
+        invalidate(entity.getId());
+        return result;
     }
 
     /**
      * Delete the entity by id value
      */
     protected WriteResult deleteById(K id) {
-        return dao.deleteById(id);
+        WriteResult result = dao.deleteById(id);
+        invalidate(id);
+        return result;
     }
 
     /**
      * Saves the entities given the query
      */
     protected WriteResult deleteByQuery(Query<T> q) {
-        return dao.deleteByQuery(q);
+        WriteResult result = dao.deleteByQuery(q);
+        invalidateAll();
+        return result;
     }
 
     protected Query<T> createQuery() {
@@ -335,14 +818,58 @@ public class MgoDao<T extends DbEntity<K>, K> {
     }
 
     protected MgoQuery<T> createMgoQuery() {
-        return new MgoQuery(dao.createQuery());
+        return new MgoQuery(dao.createQuery(), singleFlight, countCache);
     }
 
     /**
      * 根据主键获取实体对象
      */
     public T get(K id) {
-        return dao.get(id);
+        if (cache != null) {
+            return getCached(id, true);
+        }
+        BatchLoader<K, T> batch = batchLoader;
+        if (batch != null && batch.isBatching()) {
+            return batch.load(id);
+        }
+        return singleFlight == null ? dao.get(id) : findOneShared(createQuery().field(Mapper.ID_KEY).equal(id));
+    }
+
+    /**
+     * 先查缓存，未命中时读取原始文档放入缓存，再解码为实体；不存在的实体不缓存
+     *
+     * @param batchable 是否可以交给批量加载器（主键类型为 K）
+     */
+    private T getCached(Object id, boolean batchable) {
+        DBObject doc = cache.getIfPresent(id);
+        if (doc != null) {
+            return fromCache(doc);
+        }
+        BatchLoader<K, T> batch = batchLoader;
+        if (batchable && batch != null && batch.isBatching()) {
+            // 由 getAllFromDb 放入缓存
+            return batch.load((K) id);
+        }
+        long[] stamp = cacheStamp();
+        doc = loadDocument(id);
+        if (doc == null) {
+            return null;
+        }
+        cachePut(id, doc, stamp);
+        return fromCache(doc);
+    }
+
+    /**
+     * 按主键读取原始文档，开启并发读取合并时共享同一文档，各调用方分别解码
+     */
+    private DBObject loadDocument(Object id) {
+        DBObject q = createQuery().field(Mapper.ID_KEY).equal(id).getQueryObject();
+        DBCollection collection = dao.getCollection();
+        SingleFlight<String, Object> flight = singleFlight;
+        if (flight == null) {
+            return collection.findOne(q);
+        }
+        return (DBObject) flight.execute("doc|" + collection.getFullName() + '|' + q, () -> collection.findOne(q));
     }
 
     /**
@@ -351,15 +878,122 @@ public class MgoDao<T extends DbEntity<K>, K> {
      * @return
      */
     public T get(K id, boolean throwNotFound) {
-        T obj = dao.get(id);
+        T obj = get(id);
         if (obj == null && throwNotFound) {
             throw Exceptions.notFoundObject(dao.getEntityClass().getSimpleName(), id);
         }
         return obj;
     }
 
+    /**
+     * 按主键批量获取，重复的主键只查询一次；主键数超过 multiGetChunkSize 时拆分为多个 $in 查询并发执行
+     *
+     * @return 按参数中首次出现的顺序排列，不包含不存在的主键
+     */
+    public Map<K, T> getAll(Collection<K> ids) {
+        Set<K> unique = new LinkedHashSet<>(ids);
+        unique.remove(null);
+        if (unique.isEmpty()) {
+            return new LinkedHashMap<>();
+        }
+        Map<Object, T> found = new HashMap<>(unique.size() * 2);
+        List<K> all = new ArrayList<>(unique);
+        if (cache != null) {
+            cache.getAllPresent(all).forEach((id, doc) -> found.put(id, fromCache(doc)));
+            unique.removeAll(found.keySet());
+            if (unique.isEmpty()) {
+                return toOrderedMap(all, found);
+            }
+        }
+        found.putAll(getAllFromDb(new ArrayList<>(unique)));
+        return toOrderedMap(all, found);
+    }
+
+    /**
+     * 按主键从数据库批量读取并放入缓存，主键不重复
+     */
+    private Map<K, T> getAllFromDb(List<K> ids) {
+        long[] stamp = cache == null ? null : cacheStamp();
+        Map<Object, T> found = new HashMap<>(ids.size() * 2);
+        List<List<K>> chunks = Lists.partition(ids, Math.max(1, multiGetChunkSize));
+        List<Future<List<T>>> futures = new ArrayList<>(chunks.size() - 1);
+        for (int i = 1; i < chunks.size(); i++) {
+            List<K> chunk = chunks.get(i);
+            futures.add(MongoExecutors.queryExecutor().submit(() -> getChunk(chunk, stamp)));
+        }
+        // 第一批在调用线程中执行
+        collect(found, getChunk(chunks.get(0), stamp));
+        for (Future<List<T>> future : futures) {
+            collect(found, MongoExecutors.await(future));
+        }
+        return (Map<K, T>) found;
+    }
+
+    private Map<K, T> toOrderedMap(List<K> all, Map<Object, T> found) {
+        Map<K, T> result = new LinkedHashMap<>(found.size() * 2);
+        for (K id : all) {
+            T entity = found.get(id);
+            if (entity != null) {
+                result.put(id, entity);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 按主键批量获取，结果与参数一一对应，不存在的主键对应 null
+     */
+    public List<T> getAllAsList(List<K> ids) {
+        Map<K, T> found = getAll(ids);
+        List<T> result = new ArrayList<>(ids.size());
+        for (K id : ids) {
+            result.add(id == null ? null : found.get(id));
+        }
+        return result;
+    }
+
+    /**
+     * 开启缓存时读取原始文档，放入缓存后再解码
+     */
+    private List<T> getChunk(List<K> ids, long[] stamp) {
+        Query<T> q = createQuery().field(Mapper.ID_KEY).in(ids);
+        if (cache == null) {
+            return q.asList();
+        }
+        List<T> entities = new ArrayList<>(ids.size());
+        try (DBCursor cursor = dao.getCollection().find(q.getQueryObject())) {
+            for (DBObject doc : cursor) {
+                T entity = fromCache(doc);
+                cachePut(entity.getId(), doc, stamp);
+                entities.add(entity);
+            }
+        }
+        return entities;
+    }
+
+    private void collect(Map<Object, T> found, List<T> entities) {
+        for (T entity : entities) {
+            found.put(entity.getId(), entity);
+        }
+    }
+
+    /**
+     * 按主键获取并解码为带 {@link Bson} 注解的 DTO，只查询 DTO 中的字段；不经过实体缓存
+     */
+    protected <D> D getAs(K id, Class<D> dtoClass) {
+        return new MgoQuery<>(createQuery().field(Mapper.ID_KEY).equal(id)).get(dtoClass);
+    }
+
+    /**
+     * 查询并解码为带 {@link Bson} 注解的 DTO，未设置投影时只查询 DTO 中的字段
+     */
+    protected <D> List<D> findAs(Query<T> q, Class<D> dtoClass) {
+        return new MgoQuery<>(q).asList(dtoClass);
+    }
+
     public T getByObjectId(String hexStringId, boolean throwNotFound) {
-        T obj = dao.getDatastore().get(dao.getEntityClass(), new ObjectId(hexStringId));
+        ObjectId id = new ObjectId(hexStringId);
+        T obj = cache == null ? dao.getDatastore().get(dao.getEntityClass(), id) : getCached(id, false);
         if (obj == null && throwNotFound) {
             throw Exceptions.notFoundObject(dao.getEntityClass().getSimpleName(), hexStringId);
         }
@@ -370,91 +1004,247 @@ public class MgoDao<T extends DbEntity<K>, K> {
      * Finds the entities Ts
      */
     public List<K> findIds() {
-        return dao.findIds();
+        return findIds(createQuery());
     }
 
     /**
      * Finds the entities Key<T> by the criteria {key:value}
      */
     public List<K> findIds(String key, Object value) {
-        return dao.findIds(key, value);
+        return findIds(createQuery().filter(key, value));
     }
 
     /**
      * Finds the entities Ts by the criteria {key:value}
      */
     protected List<K> findIds(Query<T> q) {
-        return dao.findIds(q);
+        return findIds(q, null);
+    }
+
+    /**
+     * 只查询 _id，直接返回数据库中的 _id 值，不映射实体
+     *
+     * @param hint 使用的索引，如 {status: 1, _id: 1}，可为 null
+     */
+    protected List<K> findIds(Query<T> q, DBObject hint) {
+        List<K> ids = new ArrayList<>();
+        try (DBCursor cursor = idCursor(q, hint)) {
+            while (cursor.hasNext()) {
+                ids.add((K) cursor.next().get(Mapper.ID_KEY));
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * 整数主键的 findIds，直接从 BSON 中读取为 long，不创建文档与包装对象
+     *
+     * @param hint 使用的索引，可为 null
+     * @throws IllegalStateException _id 不是 int32 / int64
+     */
+    protected long[] findLongIds(Query<T> q, DBObject hint) {
+        FindIterable<RawBsonDocument> it = MgoQuery.find(q, RawBsonDocument.class, ID_PROJECTION);
+        if (hint != null) {
+            it.hint(new BasicDBObject(hint.toMap()));
+        }
+        long[] ids = new long[64];
+        int count = 0;
+        try (MongoCursor<RawBsonDocument> cursor = it.iterator()) {
+            while (cursor.hasNext()) {
+                if (count == ids.length) {
+                    ids = Arrays.copyOf(ids, count * 2);
+                }
+                ids[count++] = readLongId(cursor.next());
+            }
+        }
+        return Arrays.copyOf(ids, count);
+    }
+
+    private static long readLongId(RawBsonDocument doc) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(doc.getByteBuffer().asNIO())) {
+            reader.readStartDocument();
+            while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+                if (!Mapper.ID_KEY.equals(reader.readName())) {
+                    reader.skipValue();
+                } else if (reader.getCurrentBsonType() == BsonType.INT32) {
+                    return reader.readInt32();
+                } else if (reader.getCurrentBsonType() == BsonType.INT64) {
+                    return reader.readInt64();
+                } else {
+                    throw new IllegalStateException("_id is not an integer: " + reader.getCurrentBsonType());
+                }
+            }
+        }
+        throw new IllegalStateException("document has no _id");
+    }
+
+    /**
+     * 只投影 _id 的游标，排序与分页取自查询；过滤字段与 _id 在同一索引中时为只读索引的覆盖查询
+     */
+    private DBCursor idCursor(Query<T> q, DBObject hint) {
+        DBCursor cursor = q.getCollection().find(q.getQueryObject(), ID_PROJECTION);
+        if (q.getSortObject() != null) {
+            cursor.sort(q.getSortObject());
+        }
+        if (q.getOffset() > 0) {
+            cursor.skip(q.getOffset());
+        }
+        if (q.getLimit() > 0) {
+            cursor.limit(q.getLimit());
+        }
+        if (q.getBatchSize() != 0) {
+            cursor.batchSize(q.getBatchSize());
+        }
+        if (hint != null) {
+            cursor.hint(hint);
+        }
+        return cursor;
     }
 
     /**
      * Finds the first entity's ID
      */
     protected Key<T> findOneId() {
-        return dao.findOneId();
+        return findOneId(createQuery());
     }
 
     /**
      * Finds the first entity's ID
      */
     protected Key<T> findOneId(String key, Object value) {
-        return dao.findOneId(key, value);
+        return findOneId(createQuery().filter(key, value));
     }
 
     /**
      * Finds the first entity's ID
      */
     protected Key<T> findOneId(Query<T> q) {
-        return dao.findOneId(q);
+        return findOneId(q, null);
+    }
+
+    /**
+     * 只查询一个 _id（limit 1）
+     *
+     * @param hint 使用的索引，可为 null
+     */
+    protected Key<T> findOneId(Query<T> q, DBObject hint) {
+        try (DBCursor cursor = idCursor(q, hint).limit(1)) {
+            return cursor.hasNext() ? new Key<>(getEntityClass(), q.getCollection().getName(),
+                    cursor.next().get(Mapper.ID_KEY)) : null;
+        }
     }
 
     /**
      * checks for entities which match criteria {key:value}
      */
     public boolean exists(String key, Object value) {
-        return dao.exists(key, value);
+        return exists(createQuery().filter(key, value));
     }
 
     /**
      * checks for entities which match the criteria
      */
     protected boolean exists(Query<T> q) {
-        return dao.exists(q);
+        return exists(q, null);
+    }
+
+    /**
+     * 只读取一个 _id 判断是否存在，不再计数全部匹配的文档
+     *
+     * @param hint 使用的索引，可为 null
+     */
+    protected boolean exists(Query<T> q, DBObject hint) {
+        try (DBCursor cursor = idCursor(q, hint).limit(1)) {
+            return cursor.hasNext();
+        }
+    }
+
+    /**
+     * 开启计数缓存：count 以及 createMgoQuery 创建的查询的 countAll / asPageResult 按集合与查询条件缓存结果，
+     * 翻页时各页共用一次计数。缓存不随写入失效，ttlMillis 内的计数可能不准确
+     *
+     * @param ttlMillis  计数的有效期（毫秒）
+     * @param maxEntries 最多缓存的查询条件数
+     */
+    protected synchronized void enableCountCache(long ttlMillis, long maxEntries) {
+        countCache = CacheBuilder.newBuilder().expireAfterWrite(ttlMillis, TimeUnit.MILLISECONDS)
+                .maximumSize(maxEntries).recordStats().build();
+    }
+
+    /**
+     * 计数缓存的命中统计，未开启时返回 null
+     */
+    protected CacheStats getCountCacheStats() {
+        Cache<String, Long> cache = countCache;
+        return cache == null ? null : cache.stats();
     }
 
     /**
      * returns the total count
      */
     public long count() {
-        return dao.count();
+        return count(createQuery());
     }
 
     /**
      * returns the count which match criteria {key:value}
      */
     public long count(String key, Object value) {
-        return dao.count(key, value);
+        return count(createQuery().filter(key, value));
     }
 
     /**
      * returns the count which match the criteria
      */
     protected long count(Query<T> q) {
-        return dao.count(q);
+        return MgoQuery.countAll(q, countCache);
+    }
+
+    /**
+     * 最多计数到 max，用于“max+”式的显示
+     *
+     * @return 不超过 max 的数量
+     */
+    protected long countUpTo(Query<T> q, long max) {
+        return MgoQuery.countUpTo(q, max);
+    }
+
+    /**
+     * 根据集合元数据估算的总数，不执行查询，异常关闭或分片迁移期间可能不准确
+     */
+    public long estimatedCount() {
+        DBCollection collection = dao.getCollection();
+        Mongo mongo = collection.getDB().getMongo();
+        if (mongo instanceof MongoClient) {
+            return ((MongoClient) mongo).getDatabase(collection.getDB().getName())
+                    .getCollection(collection.getName()).estimatedDocumentCount();
+        }
+        return collection.getCount();
     }
 
     /**
      * returns the entity which match criteria {key:value}
      */
     public T findOne(String key, Object value) {
-        return dao.findOne(key, value);
+        if (cache != null && value != null && isIdField(key)) {
+            return getCached(value, false);
+        }
+        return singleFlight == null ? dao.findOne(key, value) : findOneShared(createQuery().filter(key, value));
+    }
+
+    private boolean isIdField(String key) {
+        if (Mapper.ID_KEY.equals(key)) {
+            return true;
+        }
+        Mapper mapper = ((DatastoreImpl) dao.getDatastore()).getMapper();
+        return key.equals(mapper.getMappedClass(getEntityClass()).getIdField().getName());
     }
 
     /**
      * returns the entity which match the criteria
      */
     protected T findOne(Query<T> q) {
-        return dao.findOne(q);
+        return singleFlight == null ? dao.findOne(q) : findOneShared(q);
     }
 
     /**
@@ -471,6 +1261,39 @@ public class MgoDao<T extends DbEntity<K>, K> {
         return dao.find(q);
     }
 
+    /**
+     * 以游标逐批读取全部实体，返回的流必须关闭
+     *
+     * @param batchSize 每批读取的文档数
+     */
+    protected Stream<T> stream(int batchSize) {
+        return stream(createQuery(), batchSize);
+    }
+
+    /**
+     * 以游标逐批读取匹配的实体，返回的流必须关闭
+     */
+    protected Stream<T> stream(Query<T> q, int batchSize) {
+        return new MgoQuery<>(q).batchSize(batchSize).stream();
+    }
+
+    /**
+     * 按 _id 区间并行扫描匹配的实体，见 {@link ParallelScanner}
+     *
+     * @param queryFactory 每个区间的基础查询，如 {@code () -> createQuery().filter("status", 1)}
+     */
+    protected ParallelScanner<T> createParallelScanner(Supplier<Query<T>> queryFactory, ScanOptions options) {
+        return new ParallelScanner<>(dao.getCollection(), queryFactory, options);
+    }
+
+    /**
+     * 并行扫描全部实体，consumer 需线程安全；返回的进度可用于重新扫描失败的区间
+     */
+    protected ScanProgress parallelScan(ScanOptions options, Consumer<? super T> consumer) {
+        ParallelScanner<T> scanner = createParallelScanner(this::createQuery, options);
+        return scanner.scan(scanner.split(), consumer);
+    }
+
     /**
      * ensures indexed for this DAO
      */
@@ -497,7 +1320,11 @@ public class MgoDao<T extends DbEntity<K>, K> {
      */
     protected UpdateResults updateById(K id, UpdateOperations<T> ops) {
         Query<T> q = createQuery().field("_id").equal(id);
-        return this.updateFirst(q, ops);
+        UpdateOperations<T> realOps =
+                (ops instanceof MgoUpdater) ? ((MgoUpdater) ops).updateOperations() : ops;
+        UpdateResults results = dao.updateFirst(q, realOps);
+        invalidate(id);
+        return results;
     }
 
     /**
@@ -506,7 +1333,12 @@ public class MgoDao<T extends DbEntity<K>, K> {
      * @param hexStringId 24 位字符串表示的 ObjectId
      */
     protected UpdateResults updateByObjectId(String hexStringId, UpdateOperations<T> ops) {
-        Query<T> q = createQuery().field("_id").equal(new ObjectId(hexStringId));
-        return this.update(q, ops);
+        ObjectId id = new ObjectId(hexStringId);
+        Query<T> q = createQuery().field("_id").equal(id);
+        UpdateOperations<T> realOps =
+                (ops instanceof MgoUpdater) ? ((MgoUpdater) ops).updateOperations() : ops;
+        UpdateResults results = dao.update(q, realOps);
+        invalidate(id);
+        return results;
     }
 }
@@ -1,32 +1,129 @@
 package lucky.sky.db.mongo;
 
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.Mongo;
+import com.mongodb.client.FindIterable;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.model.DBCollectionCountOptions;
+import lucky.sky.db.mongo.concurrent.MongoExecutors;
+import lucky.sky.db.mongo.concurrent.SingleFlight;
 import lucky.sky.db.mongo.convert.DateConverter;
+import lucky.sky.db.mongo.data.PageInfo;
 import lucky.sky.db.mongo.data.PageInfoSupport;
 import lucky.sky.db.mongo.data.PageResult;
 import lucky.sky.db.mongo.lang.EnumValueSupport;
 import lucky.sky.db.mongo.lang.Enums;
 import lucky.sky.db.mongo.lang.Numbers;
 import lucky.sky.db.mongo.lang.StrKit;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.mongodb.morphia.DatastoreImpl;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.mapping.cache.EntityCache;
+import org.mongodb.morphia.query.Criteria;
+import org.mongodb.morphia.query.CriteriaContainerImpl;
+import org.mongodb.morphia.query.FieldEnd;
+import org.mongodb.morphia.query.MorphiaIterator;
 import org.mongodb.morphia.query.Query;
+import org.mongodb.morphia.query.QueryImpl;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
-
-
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+@SuppressWarnings("unchecked")
 public class MgoQuery<T> {
 
     private static final Logger log = LoggerFactory.getLogger(MgoQuery.class);
     private static final Logger qdump = LoggerFactory.getLogger("lucky.sky.db.mongo.query");
 
+    /**
+     * 各连接的 DTO 编解码注册表：带 Bson 注解的类由 ObjectCodec 处理，其余类型沿用连接自身的注册表
+     * （如 Mgo 注册的按系统时区编解码的 LocalDateTimeCodec）。连接数量很少且长期存活，按连接缓存
+     */
+    private static final ConcurrentMap<com.mongodb.MongoClient, CodecRegistry> DTO_REGISTRIES =
+            new ConcurrentHashMap<>();
+
+    /**
+     * DTO 字段对应的投影
+     */
+    private static final ClassValue<BasicDBObject> DTO_PROJECTIONS = new ClassValue<BasicDBObject>() {
+        @Override
+        protected BasicDBObject computeValue(Class<?> type) {
+            if (!type.isAnnotationPresent(Bson.class)) {
+                throw new IllegalArgumentException(type.getName() + " is not annotated with @Bson");
+            }
+            BasicDBObject projection = new BasicDBObject();
+            for (ObjectMethodCache.ObjectMethodUtil.FieldInfo fi
+                    : ObjectMethodCache.getObjectMethodUtil(type).fields()) {
+                projection.put(fi.name, 1);
+            }
+            if (!projection.containsField(Mapper.ID_KEY)) {
+                projection.put(Mapper.ID_KEY, 0);
+            }
+            return projection;
+        }
+    };
+
     private Query<T> query;
+    /**
+     * 非 null 时 get / asList 合并相同的并发查询
+     */
+    private SingleFlight<String, Object> singleFlight;
+    /**
+     * 非 null 时 countAll 与 asPageResult 的计数使用该缓存
+     */
+    private Cache<String, Long> countCache;
+    /**
+     * 数组字段的 $slice 投影；Morphia 的 retrievedFields 不支持，设置后实体查询改为直接使用游标再映射
+     */
+    private BasicDBObject slices;
+    /**
+     * seek 分页使用的排序（已补充 _id），为 null 表示未使用 seek 分页
+     */
+    private DBObject seekSort;
+    /**
+     * 加入 seek 条件前的查询，用于计算总数
+     */
+    private Query<T> countQuery;
+    /**
+     * asPageResult 是否计算总数，取自 page / seek 的 PageInfo.calculatesTotalCount
+     */
+    private boolean calculatesTotalCount = true;
 
     public MgoQuery(Query<T> query) {
         this.query = query;
     }
 
+    MgoQuery(Query<T> query, SingleFlight<String, Object> singleFlight, Cache<String, Long> countCache) {
+        this.query = query;
+        this.singleFlight = singleFlight;
+        this.countCache = countCache;
+    }
+
     /**
      * 底层 Query~T 对象。
      */
@@ -87,21 +184,370 @@ public class MgoQuery<T> {
     }
 
     /**
-     * 设置分页
+     * 设置分页；pageInfo 为 PageInfo 且 calculatesTotalCount 为 false 时，asPageResult 不计算总数
      */
     public MgoQuery<T> page(PageInfoSupport pageInfo) {
         page(query, pageInfo);
+        if (pageInfo instanceof PageInfo) {
+            calculatesTotalCount = ((PageInfo) pageInfo).isCalculatesTotalCount();
+        }
+        return this;
+    }
+
+    /**
+     * 按游标分页（keyset / seek）：以上一页最后一条记录的排序字段值作为范围条件，代替 offset，
+     * 任意页的耗时与第一页相同，适用于“下一页”式的翻页。
+     * <p>
+     * 须在设置排序（order）之后调用，排序中会补充 _id 保证顺序唯一，排序字段的值不应为 null，
+     * 多字段排序时生成的 $or 条件不能与查询中已有的 or 同时使用；设置了 include / exclude 时自动返回排序字段；
+     * pageInfo.cursor 为 null 时返回第一页，之后传入上一页 {@link PageResult#getNextCursor()}。
+     * 结果通过 {@link #asPageResult()} 获取。
+     *
+     * @throws IllegalArgumentException 游标无效或与当前排序不一致
+     */
+    public MgoQuery<T> seek(PageInfo pageInfo) {
+        calculatesTotalCount = pageInfo.isCalculatesTotalCount();
+        countQuery = calculatesTotalCount ? query.cloneQuery() : null;
+        QueryImpl<T> impl = (QueryImpl<T>) query;
+        boolean validating = impl.isValidatingNames();
+        // 排序对象中已是数据库字段名，不再按实体字段校验
+        impl.disableValidation();
+        try {
+            seekSort = SeekCursor.sortWithId(query.getSortObject());
+            query.order(SeekCursor.orderString(seekSort));
+            if (pageInfo.getCursor() != null) {
+                after(SeekCursor.decode(pageInfo.getCursor(), seekSort));
+            }
+        } finally {
+            if (validating) {
+                impl.enableValidation();
+            }
+        }
+        query.limit(pageInfo.getPageSize());
+        return this;
+    }
+
+    /**
+     * 排在给定排序值之后：(k1 > v1) or (k1 = v1 and k2 > v2) or ...，降序字段使用 <
+     */
+    private void after(List<Object> values) {
+        List<String> keys = new ArrayList<>(seekSort.keySet());
+        Criteria[] branches = new Criteria[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            Criteria[] parts = new Criteria[i + 1];
+            for (int j = 0; j < i; j++) {
+                parts[j] = query.criteria(keys.get(j)).equal(values.get(j));
+            }
+            FieldEnd<? extends CriteriaContainerImpl> field = query.criteria(keys.get(i));
+            parts[i] = ((Number) seekSort.get(keys.get(i))).intValue() < 0
+                    ? field.lessThan(values.get(i)) : field.greaterThan(values.get(i));
+            branches[i] = i == 0 ? parts[0] : query.and(parts);
+        }
+        if (branches.length == 1) {
+            // criteria 已加入查询
+            return;
+        }
+        query.or(branches);
+    }
+
+    /**
+     * 只返回指定字段（实体字段名），其它字段保持默认值；不能与 exclude 同时使用
+     */
+    public MgoQuery<T> include(String... fields) {
+        query.retrievedFields(true, fields);
         return this;
     }
 
+    /**
+     * 不返回指定字段（实体字段名），如较大的内嵌数组；不能与 include 同时使用
+     */
+    public MgoQuery<T> exclude(String... fields) {
+        query.retrievedFields(false, fields);
+        return this;
+    }
+
+    /**
+     * 数组字段只返回前 limit 个元素，limit 为负数时返回最后 -limit 个
+     *
+     * @param field 数据库字段名
+     */
+    public MgoQuery<T> slice(String field, int limit) {
+        return slice(field, (Object) limit);
+    }
+
+    /**
+     * 数组字段跳过 skip 个元素后返回 limit 个
+     *
+     * @param field 数据库字段名
+     */
+    public MgoQuery<T> slice(String field, int skip, int limit) {
+        return slice(field, Arrays.asList(skip, limit));
+    }
+
+    private MgoQuery<T> slice(String field, Object spec) {
+        if (slices == null) {
+            slices = new BasicDBObject();
+        }
+        slices.put(field, new BasicDBObject("$slice", spec));
+        return this;
+    }
+
+    /**
+     * 实际发送的投影，没有设置时返回 null；seek 分页时保证返回所有排序字段
+     */
+    DBObject projection() {
+        DBObject fields = query.getFieldsObject();
+        if (!usesCursor()) {
+            return fields;
+        }
+        BasicDBObject projection = new BasicDBObject();
+        if (fields != null) {
+            projection.putAll(fields);
+        }
+        if (slices != null) {
+            projection.putAll((Map) slices);
+        }
+        return seekSort == null ? projection : SeekCursor.withSortFields(projection, seekSort);
+    }
+
+    /**
+     * 是否需要绕过 Morphia 直接打开游标：$slice 投影，或 seek 分页的同时设置了 include / exclude
+     */
+    private boolean usesCursor() {
+        return slices != null || (seekSort != null && query.getFieldsObject() != null);
+    }
+
     public T get() {
         dump();
-        return query.get();
+        if (singleFlight != null) {
+            return (T) singleFlight.execute(flightKey("one"), this::fetchOne);
+        }
+        return fetchOne();
     }
 
     public List<T> asList() {
         dump();
-        return query.asList();
+        if (singleFlight != null) {
+            // 列表本身不共享，其中的实体共享
+            return new ArrayList<>((List<T>) singleFlight.execute(flightKey("list"), this::fetchList));
+        }
+        return fetchList();
+    }
+
+    private T fetchOne() {
+        if (!usesCursor()) {
+            return query.get();
+        }
+        MorphiaIterator<T, T> it = fetch(1);
+        try {
+            return it.hasNext() ? it.next() : null;
+        } finally {
+            it.close();
+        }
+    }
+
+    private List<T> fetchList() {
+        if (!usesCursor()) {
+            return query.asList();
+        }
+        List<T> list = new ArrayList<>();
+        MorphiaIterator<T, T> it = fetch(query.getLimit());
+        try {
+            it.forEachRemaining(list::add);
+        } finally {
+            it.close();
+        }
+        return list;
+    }
+
+    /**
+     * 需要自定义投影时按查询条件、排序与分页直接打开游标，再由 Morphia 映射为实体
+     */
+    private MorphiaIterator<T, T> fetch(int limit) {
+        if (!usesCursor()) {
+            return query.fetch();
+        }
+        DatastoreImpl ds = ((QueryImpl<T>) query).getDatastore();
+        Mapper mapper = ds.getMapper();
+        return new MorphiaIterator<>(ds, openCursor(limit), mapper, query.getEntityClass(),
+                query.getCollection().getName(), mapper.createEntityCache());
+    }
+
+    /**
+     * seek 分页读取当前页，同时把最后一条原始文档存入 last[0]，用于生成下一页游标；
+     * 排序值取自原始文档而不是把实体重新映射回文档，不会触发实体的 @PrePersist 等回调
+     */
+    private List<T> fetchSeekPage(DBObject[] last) {
+        DatastoreImpl ds = ((QueryImpl<T>) query).getDatastore();
+        Mapper mapper = ds.getMapper();
+        EntityCache cache = mapper.createEntityCache();
+        List<T> list = new ArrayList<>();
+        DBCursor cursor = openCursor(query.getLimit());
+        try {
+            while (cursor.hasNext()) {
+                DBObject doc = cursor.next();
+                list.add(mapper.fromDBObject(ds, query.getEntityClass(), doc, cache));
+                last[0] = doc;
+            }
+        } finally {
+            cursor.close();
+        }
+        return list;
+    }
+
+    private DBCursor openCursor(int limit) {
+        DBCursor cursor = query.getCollection().find(query.getQueryObject(), projection());
+        if (query.getSortObject() != null) {
+            cursor.sort(query.getSortObject());
+        }
+        if (query.getOffset() > 0) {
+            cursor.skip(query.getOffset());
+        }
+        if (limit > 0) {
+            cursor.limit(limit);
+        }
+        if (query.getBatchSize() != 0) {
+            cursor.batchSize(query.getBatchSize());
+        }
+        return cursor;
+    }
+
+    /**
+     * 以 ObjectCodec 解码为带 {@link Bson} 注解的轻量类（DTO）。未设置 include / exclude / slice 时
+     * 只查询 DTO 中的字段，网络传输与解码的开销只与 DTO 的字段有关
+     */
+    public <D> List<D> asList(Class<D> dtoClass) {
+        dump();
+        List<D> list = new ArrayList<>();
+        try (MongoCursor<D> cursor = find(dtoClass).iterator()) {
+            cursor.forEachRemaining(list::add);
+        }
+        return list;
+    }
+
+    public <D> D get(Class<D> dtoClass) {
+        dump();
+        return find(dtoClass).limit(1).first();
+    }
+
+    private <D> FindIterable<D> find(Class<D> dtoClass) {
+        DBObject projection = projection();
+        return find(query, dtoClass, projection != null ? projection : DTO_PROJECTIONS.get(dtoClass));
+    }
+
+    /**
+     * 通过同一连接的 MongoCollection 执行查询（条件、排序与分页取自 query），结果按 resultClass 解码
+     */
+    static <D> FindIterable<D> find(Query<?> query, Class<D> resultClass, DBObject projection) {
+        DBCollection dbCollection = query.getCollection();
+        Mongo mongo = dbCollection.getDB().getMongo();
+        if (!(mongo instanceof com.mongodb.MongoClient)) {
+            throw new IllegalStateException("typed query requires a com.mongodb.MongoClient");
+        }
+        MongoCollection<D> collection = ((com.mongodb.MongoClient) mongo)
+                .getDatabase(dbCollection.getDB().getName())
+                .getCollection(dbCollection.getName(), resultClass)
+                .withCodecRegistry(dtoRegistry((com.mongodb.MongoClient) mongo))
+                .withReadPreference(dbCollection.getReadPreference());
+        FindIterable<D> it = collection.find((BasicDBObject) query.getQueryObject())
+                .projection(new BasicDBObject(projection.toMap()));
+        if (query.getSortObject() != null) {
+            it.sort((BasicDBObject) query.getSortObject());
+        }
+        if (query.getOffset() > 0) {
+            it.skip(query.getOffset());
+        }
+        if (query.getLimit() > 0) {
+            it.limit(query.getLimit());
+        }
+        if (query.getBatchSize() != 0) {
+            it.batchSize(query.getBatchSize());
+        }
+        return it;
+    }
+
+    private static CodecRegistry dtoRegistry(com.mongodb.MongoClient client) {
+        return DTO_REGISTRIES.computeIfAbsent(client, c -> CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new ObjectCodecProvider()),
+                c.getMongoClientOptions().getCodecRegistry()));
+    }
+
+    /**
+     * 合并并发查询使用的 key，包含集合、条件、字段、排序与分页
+     */
+    private String flightKey(String op) {
+        String key = flightKey(op, query);
+        return slices == null ? key : key + '|' + slices;
+    }
+
+    static String flightKey(String op, Query<?> query) {
+        return op + '|' + query.getCollection().getFullName() + '|' + query.getQueryObject()
+                + '|' + query.getFieldsObject() + '|' + query.getSortObject()
+                + '|' + query.getOffset() + '|' + query.getLimit();
+    }
+
+    /**
+     * 游标每次从服务端读取的文档数，用于 stream / forEach
+     */
+    public MgoQuery<T> batchSize(int batchSize) {
+        query.batchSize(batchSize);
+        return this;
+    }
+
+    /**
+     * 以游标逐批读取结果，内存占用与结果总数无关。
+     * 返回的流持有服务端游标，必须关闭（try-with-resources）；迭代中出现异常时游标随即关闭。
+     */
+    public Stream<T> stream() {
+        dump();
+        CursorIterator<T> it = new CursorIterator<>(fetch(query.getLimit()));
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(it,
+                Spliterator.ORDERED | Spliterator.NONNULL), false).onClose(it::close);
+    }
+
+    /**
+     * 以游标逐个处理结果，结束或出现异常时关闭游标
+     */
+    public void forEach(Consumer<? super T> action) {
+        try (Stream<T> stream = stream()) {
+            stream.forEach(action);
+        }
+    }
+
+    /**
+     * 出现异常时关闭游标的迭代器
+     */
+    private static final class CursorIterator<T> implements Iterator<T> {
+
+        private final MorphiaIterator<T, T> cursor;
+
+        CursorIterator(MorphiaIterator<T, T> cursor) {
+            this.cursor = cursor;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                return cursor.hasNext();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+
+        @Override
+        public T next() {
+            try {
+                return cursor.next();
+            } catch (RuntimeException e) {
+                cursor.close();
+                throw e;
+            }
+        }
+
+        void close() {
+            cursor.close();
+        }
     }
 
     /**
@@ -109,7 +555,36 @@ public class MgoQuery<T> {
      */
     public long countAll() {
         dump();
-        return query.countAll();
+        return countAll(query, countCache);
+    }
+
+    /**
+     * 最多计数到 max，用于“max+”式的显示，满足条件的文档很多时比 countAll 快得多
+     *
+     * @return 不超过 max 的数量
+     */
+    public long countUpTo(long max) {
+        dump();
+        return countUpTo(query, max);
+    }
+
+    public static long countUpTo(Query<?> query, long max) {
+        return query.getCollection().getCount(query.getQueryObject(), new DBCollectionCountOptions().limit(max));
+    }
+
+    /**
+     * @param countCache 为 null 时直接计数
+     */
+    static long countAll(Query<?> query, Cache<String, Long> countCache) {
+        if (countCache == null) {
+            return query.countAll();
+        }
+        String key = query.getCollection().getFullName() + '|' + query.getQueryObject();
+        try {
+            return countCache.get(key, query::countAll);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
     private void dump() {
@@ -117,11 +592,20 @@ public class MgoQuery<T> {
     }
 
     /**
-     * 返回分页结果集以及总记录数
+     * 返回分页结果集以及总记录数；计算总数时计数与查询并发执行，不计算时总数为 0
      */
     public PageResult<T> asPageResult() {
-
-        return asPageResult(query);
+        dump();
+        if (seekSort == null) {
+            return asPageResult(this::fetchList, calculatesTotalCount ? query.cloneQuery() : null, countCache);
+        }
+        DBObject[] last = new DBObject[1];
+        PageResult<T> result = asPageResult(() -> fetchSeekPage(last), countQuery, countCache);
+        List<T> items = result.getItems();
+        if (!items.isEmpty() && items.size() >= query.getLimit()) {
+            result.setNextCursor(SeekCursor.encode(seekSort, SeekCursor.valuesOf(last[0], seekSort)));
+        }
+        return result;
     }
 
     /**
@@ -228,13 +712,42 @@ public class MgoQuery<T> {
     }
 
     public static <T> PageResult<T> asPageResult(MgoQuery<T> query) {
-        return asPageResult(query.query);
+        return query.asPageResult();
     }
 
     public static <T> PageResult<T> asPageResult(Query<T> query) {
+        return asPageResult(query, true);
+    }
+
+    /**
+     * @param calculatesTotalCount 为 false 时不计算总数（为 0）
+     */
+    public static <T> PageResult<T> asPageResult(Query<T> query, boolean calculatesTotalCount) {
+        return asPageResult(query::asList, calculatesTotalCount ? query.cloneQuery() : null, null);
+    }
+
+    /**
+     * 在查询线程池中计数，同时在调用线程中读取当前页
+     *
+     * @param fetch      读取当前页
+     * @param countQuery 计数使用的查询（与读取当前页的不是同一对象），为 null 时不计数
+     * @param countCache 计数缓存，可为 null
+     */
+    private static <T> PageResult<T> asPageResult(Supplier<List<T>> fetch, Query<T> countQuery,
+                                                  Cache<String, Long> countCache) {
         PageResult<T> result = new PageResult<>();
-        result.setTotalCount((int) query.countAll());
-        result.setItems(query.asList());
+        if (countQuery == null) {
+            result.setItems(fetch.get());
+            return result;
+        }
+        Future<Long> count = MongoExecutors.queryExecutor().submit(() -> countAll(countQuery, countCache));
+        try {
+            result.setItems(fetch.get());
+        } catch (RuntimeException e) {
+            count.cancel(true);
+            throw e;
+        }
+        result.setTotalCount((int) (long) MongoExecutors.await(count));
         return result;
     }
 }
@@ -22,6 +22,7 @@ public final class MongoConfig {
     }
 
     private static HashMap<String, MongoInfo> infos = new HashMap<>();
+    private static HashMap<String, String> cacheSpecs = new HashMap<>();
 
     static {
         loadConfig();
@@ -49,6 +50,12 @@ public final class MongoConfig {
 
             infos.put(info.name, info);
         }
+
+        NodeList cacheNodes = doc.getElementsByTagName("cache");
+        for (int i = 0; i < cacheNodes.getLength(); i++) {
+            Element elem = (Element) cacheNodes.item(i);
+            cacheSpecs.put(elem.getAttribute("entity"), elem.getAttribute("spec"));
+        }
     }
 
     public synchronized static MongoInfo get(String name) {
@@ -59,6 +66,14 @@ public final class MongoConfig {
         return info;
     }
 
+    /**
+     * 实体缓存配置，即 &lt;cache entity="实体类全名" spec="maximumSize=10000,expireAfterWrite=10m"/&gt;
+     *
+     * @return 未配置时返回 null
+     */
+    public synchronized static String getCacheSpec(String entityClassName) {
+        return cacheSpecs.get(entityClassName);
+    }
 
     public interface MongoInfo {
 
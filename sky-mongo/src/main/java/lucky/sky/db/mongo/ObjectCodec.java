@@ -1,14 +1,26 @@
 package lucky.sky.db.mongo;
 
+import com.google.common.primitives.Primitives;
+import lucky.sky.db.mongo.id.IdGeneratedBy;
+import lucky.sky.db.mongo.id.IdGenerators;
 import org.bson.*;
 import org.bson.codecs.*;
+import org.bson.codecs.configuration.CodecConfigurationException;
 import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BsonInput;
+import org.bson.io.BsonInputMark;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
 
 
 public class ObjectCodec<T> implements CollectibleCodec<T> {
@@ -16,13 +28,25 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
     private Logger log = LoggerFactory.getLogger(ObjectCodec.class);
 
     private static final String ID_FIELD_NAME = "_id";
+    /**
+     * 标记文档中未出现的属性
+     */
+    private static final Object NO_VALUE = new Object();
     private static BsonTypeClassMap bsonTypeClassMap = new BsonTypeClassMap();
+    /**
+     * 延迟列表包装文档的头部：长度占位、数组类型、字段名 "v"
+     */
+    private static final byte[] LAZY_HEADER = {0, 0, 0, 0, (byte) BsonType.ARRAY.getValue(), 'v', 0};
 
     private final CodecRegistry registry;
     /**
-     * mongodb的主键_id默认生成规则,可重新定义
+     * mongodb的主键_id默认生成规则,可通过 {@link IdGeneratedBy} 重新定义
      */
-    private final IdGenerator idGenerator = new ObjectIdGenerator();
+    private final IdGenerator idGenerator;
+    /**
+     * _id 属性的声明类型，生成的主键按此类型转换
+     */
+    private final Class<?> idType;
     private final Transformer valueTransformer = createTransformer();
 
     @SuppressWarnings("rawtypes")
@@ -30,6 +54,19 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
 
     private final ObjectMethodCache.ObjectMethodUtil methodUtil;
 
+    /**
+     * 与 methodUtil.fields() 按槽位一一对应，构造时绑定好的字段 Codec
+     */
+    private final FieldCodec[] fieldCodecs;
+    /**
+     * 多态值（运行时类型与声明类型不同）按实际类型缓存的 Codec
+     */
+    private final ConcurrentMap<Class<?>, Codec<?>> codecCache = new ConcurrentHashMap<>();
+    /**
+     * 未映射类型的字段按 BsonType 缓存的 Codec
+     */
+    private final Codec<?>[] bsonTypeCodecs = new Codec<?>[BsonType.values().length];
+
     public ObjectCodec() {
         this(ObjectCodec.class, com.mongodb.MongoClient.getDefaultCodecRegistry());
     }
@@ -39,6 +76,67 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
         this.clazz = clazz;
         this.methodUtil = ObjectMethodCache.getObjectMethodUtil(clazz);
         this.registry = registry;
+        this.fieldCodecs = bindFieldCodecs();
+        this.idGenerator = IdGenerators.ofOrDefault(clazz);
+        ObjectMethodCache.ObjectMethodUtil.FieldInfo idField = methodUtil.fieldInfo(ID_FIELD_NAME, -1);
+        this.idType = idField == null ? null : idField.type;
+    }
+
+    private FieldCodec[] bindFieldCodecs() {
+        ObjectMethodCache.ObjectMethodUtil.FieldInfo[] fields = methodUtil.fields();
+        FieldCodec[] codecs = new FieldCodec[fields.length];
+        for (ObjectMethodCache.ObjectMethodUtil.FieldInfo fi : fields) {
+            Class<?> type = Primitives.wrap(fi.type);
+            Codec<?> encoder = isConcreteValueType(type) ? tryGetCodec(type) : null;
+            Codec<?> decoder = fi.clazz == null ? null
+                    : (fi.clazz == type && encoder != null ? encoder : tryGetCodec(fi.clazz));
+            FieldCodec fc = new FieldCodec(type, encoder, fi.clazz, decoder);
+            if (fi.lazy) {
+                fc.lazyDecoder = raw -> decodeLazyList(raw, fc);
+            }
+            codecs[fi.slot] = fc;
+        }
+        return codecs;
+    }
+
+    private static boolean isConcreteValueType(Class<?> type) {
+        return type != Object.class && !type.isInterface()
+                && !Modifier.isAbstract(type.getModifiers())
+                && !List.class.isAssignableFrom(type) && !Map.class.isAssignableFrom(type);
+    }
+
+    /**
+     * 构造时尝试绑定，注册表中没有对应 Codec 时保留为 null，写值时再按运行时类型查找
+     */
+    private Codec<?> tryGetCodec(Class<?> type) {
+        try {
+            return registry.get(type);
+        } catch (CodecConfigurationException e) {
+            log.debug("codec of {} not found when binding {}", type.getName(), clazz.getName());
+            return null;
+        }
+    }
+
+    /**
+     * 按运行时类型查找 Codec，结果按类型缓存，避免每个值都走一遍 provider 链
+     */
+    private Codec<?> codecFor(Class<?> type) {
+        Codec<?> codec = codecCache.get(type);
+        if (codec == null) {
+            // 不使用 computeIfAbsent：registry.get 可能递归回到本方法
+            codec = registry.get(type);
+            codecCache.putIfAbsent(type, codec);
+        }
+        return codec;
+    }
+
+    private Codec<?> codecFor(BsonType bsonType) {
+        Codec<?> codec = bsonTypeCodecs[bsonType.ordinal()];
+        if (codec == null) {
+            codec = registry.get(bsonTypeClassMap.get(bsonType));
+            bsonTypeCodecs[bsonType.ordinal()] = codec;
+        }
+        return codec;
     }
 
     /**
@@ -63,34 +161,71 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
     @Override
     public void encode(BsonWriter writer, T obj, EncoderContext encoderContext) {
         writer.writeStartDocument();
-        Map<String, Object> keyValue = methodUtil.getObjectKeyValue(obj);
-        for (Map.Entry<String, Object> entry : keyValue.entrySet()) {
-            writer.writeName(entry.getKey());
-            writeValue(writer, encoderContext, entry.getValue());
+        // 按声明顺序直接调用 getter 写出，不再为每个文档构造中间 Map
+        for (ObjectMethodCache.ObjectMethodUtil.FieldInfo fi : methodUtil.fields()) {
+            writer.writeName(fi.name);
+            switch (fi.kind) {
+                case INT:
+                    writer.writeInt32(methodUtil.getInt(obj, fi));
+                    break;
+                case LONG:
+                    writer.writeInt64(methodUtil.getLong(obj, fi));
+                    break;
+                case DOUBLE:
+                    writer.writeDouble(methodUtil.getDouble(obj, fi));
+                    break;
+                case BOOLEAN:
+                    writer.writeBoolean(methodUtil.getBoolean(obj, fi));
+                    break;
+                default:
+                    writeField(writer, encoderContext, fieldCodecs[fi.slot],
+                            methodUtil.getBeanValue(obj, fi));
+                    break;
+            }
         }
         writer.writeEndDocument();
     }
 
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void writeField(final BsonWriter writer, final EncoderContext encoderContext,
+                            final FieldCodec fc, final Object value) {
+        if (value != null && fc.encoder != null && value.getClass() == fc.type) {
+            encoderContext.encodeWithChildContext((Codec) fc.encoder, writer, value);
+        } else if (value instanceof List && fc.clazz != null) {
+            writeList(writer, (List<Object>) value, encoderContext.getChildContext(), fc);
+        } else {
+            writeValue(writer, encoderContext, value);
+        }
+    }
+
     @SuppressWarnings({"unchecked", "rawtypes"})
     private void writeValue(final BsonWriter writer, final EncoderContext encoderContext,
                             final Object value) {
         if (value == null) {
             writer.writeNull();
         } else if (List.class.isAssignableFrom(value.getClass())) {
-            writeList(writer, (List<Object>) value, encoderContext.getChildContext());
+            writeList(writer, (List<Object>) value, encoderContext.getChildContext(), null);
         } else if (Map.class.isAssignableFrom(value.getClass())) {
             writeMap(writer, (Map<String, Object>) value, encoderContext.getChildContext());
         } else {
-            Codec codec = registry.get(value.getClass());
+            Codec codec = codecFor(value.getClass());
             encoderContext.encodeWithChildContext(codec, writer, value);
         }
     }
 
+    /**
+     * @param fc 不为 null 时，元素类型与声明的元素类型一致则直接使用已绑定的元素 Codec
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
     private void writeList(final BsonWriter writer, final List<Object> list,
-                           final EncoderContext encoderContext) {
+                           final EncoderContext encoderContext, final FieldCodec fc) {
         writer.writeStartArray();
         for (final Object value : list) {
-            writeValue(writer, encoderContext, value);
+            if (value != null && fc != null && fc.decoder != null && value.getClass() == fc.clazz) {
+                encoderContext.encodeWithChildContext((Codec) fc.decoder, writer, value);
+            } else {
+                writeValue(writer, encoderContext, value);
+            }
         }
         writer.writeEndArray();
     }
@@ -125,51 +260,222 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
     @SuppressWarnings("unchecked")
     @Override
     public T decode(BsonReader reader, DecoderContext decoderContext) {
-        Object obj = null;
-        try {
-            obj = clazz.newInstance();
-        } catch (Exception e) {
-            log.error("java invoke error clazz.newInstance ", e);
+        ObjectCreator creator = methodUtil.creator();
+        if (creator.hasParameters()) {
+            return decodeWithConstructor(reader, decoderContext, creator);
         }
-
-        if (null == obj) {
-            return null;
+        Object obj = creator.newInstance();
+        reader.readStartDocument();
+        // 预期下一个字段的槽位，按声明顺序写出的文档几乎总能直接命中
+        int hint = 0;
+        while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
+            ObjectMethodCache.ObjectMethodUtil.FieldInfo fi = methodUtil.fieldInfo(reader.readName(), hint);
+            if (fi == null) {
+                skipUnmapped(reader);
+                continue;
+            }
+            if (fi.kind != ObjectMethodCache.ObjectMethodUtil.PrimitiveKind.NONE
+                    && readPrimitive(reader, obj, fi)) {
+                hint = fi.slot + 1;
+                continue;
+            }
+            methodUtil.setBeanValue(obj, fi, readFieldValue(reader, decoderContext, fi));
+            hint = fi.slot + 1;
         }
+        reader.readEndDocument();
+        return (T) obj;
+    }
+
+    /**
+     * 通过带参构造函数创建（record、不可变实体）：先读出全部属性值，再调用构造函数，
+     * 不在构造参数中的属性随后通过 setter 赋值
+     */
+    @SuppressWarnings("unchecked")
+    private T decodeWithConstructor(BsonReader reader, DecoderContext decoderContext,
+                                    ObjectCreator creator) {
+        Object[] args = new Object[creator.parameterCount()];
+        Object[] others = null;
         reader.readStartDocument();
+        int hint = 0;
         while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
-            String fieldName = reader.readName();
-            Class<?> clazz = methodUtil.getClass(fieldName);
-            Object value = readValue(reader, decoderContext, clazz);
-            methodUtil.setBeanValue(obj, fieldName, value);
+            ObjectMethodCache.ObjectMethodUtil.FieldInfo fi = methodUtil.fieldInfo(reader.readName(), hint);
+            if (fi == null) {
+                skipUnmapped(reader);
+                continue;
+            }
+            Object value = readFieldValue(reader, decoderContext, fi);
+            if (fi.ctorIndex >= 0) {
+                args[fi.ctorIndex] = value;
+            } else {
+                if (others == null) {
+                    others = new Object[fieldCodecs.length];
+                    Arrays.fill(others, NO_VALUE);
+                }
+                others[fi.slot] = value;
+            }
+            hint = fi.slot + 1;
         }
         reader.readEndDocument();
+
+        Object obj = creator.newInstance(args);
+        if (others != null) {
+            for (ObjectMethodCache.ObjectMethodUtil.FieldInfo fi : methodUtil.fields()) {
+                if (others[fi.slot] != NO_VALUE) {
+                    methodUtil.setBeanValue(obj, fi, others[fi.slot]);
+                }
+            }
+        }
         return (T) obj;
     }
 
+    /**
+     * 基本类型属性直接按类型读取并赋值，不装箱；仅接受无损的 BsonType，其它情况返回 false 交由通用逻辑处理
+     */
+    private boolean readPrimitive(final BsonReader reader, final Object obj,
+                                  final ObjectMethodCache.ObjectMethodUtil.FieldInfo fi) {
+        BsonType bsonType = reader.getCurrentBsonType();
+        if (bsonType == BsonType.NULL) {
+            // 保留基本类型默认值
+            reader.readNull();
+            return true;
+        }
+        switch (fi.kind) {
+            case INT:
+                if (bsonType == BsonType.INT32) {
+                    methodUtil.setInt(obj, fi, reader.readInt32());
+                    return true;
+                }
+                return false;
+            case LONG:
+                if (bsonType == BsonType.INT64) {
+                    methodUtil.setLong(obj, fi, reader.readInt64());
+                    return true;
+                }
+                if (bsonType == BsonType.INT32) {
+                    methodUtil.setLong(obj, fi, reader.readInt32());
+                    return true;
+                }
+                return false;
+            case DOUBLE:
+                if (bsonType == BsonType.DOUBLE) {
+                    methodUtil.setDouble(obj, fi, reader.readDouble());
+                    return true;
+                }
+                if (bsonType == BsonType.INT32) {
+                    methodUtil.setDouble(obj, fi, reader.readInt32());
+                    return true;
+                }
+                if (bsonType == BsonType.INT64) {
+                    methodUtil.setDouble(obj, fi, reader.readInt64());
+                    return true;
+                }
+                return false;
+            case BOOLEAN:
+                if (bsonType == BsonType.BOOLEAN) {
+                    methodUtil.setBoolean(obj, fi, reader.readBoolean());
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 未映射的字段直接跳过，不解码
+     */
+    private void skipUnmapped(final BsonReader reader) {
+        if (reader instanceof BsonBinaryReader) {
+            BsonInput input = ((BsonBinaryReader) reader).getBsonInput();
+            int start = input.getPosition();
+            reader.skipValue();
+            methodUtil.recordSkipped(input.getPosition() - start);
+        } else {
+            reader.skipValue();
+            methodUtil.recordSkipped(0);
+        }
+    }
+
+    /**
+     * 解码时跳过的未映射字段数，按实体类型累计（同一类型的所有 ObjectCodec 共享）
+     */
+    public long getSkippedFieldCount() {
+        return methodUtil.skippedFields();
+    }
+
+    /**
+     * 解码时跳过的未映射字段字节数，只统计二进制读取（查询结果）的部分
+     */
+    public long getSkippedBytes() {
+        return methodUtil.skippedBytes();
+    }
+
+    private Object readFieldValue(final BsonReader reader, final DecoderContext decoderContext,
+                                  final ObjectMethodCache.ObjectMethodUtil.FieldInfo fi) {
+        FieldCodec fc = fieldCodecs[fi.slot];
+        // 只有二进制读取（查询结果）才能直接截取原始字节，其它 reader 照常解码
+        if (fi.lazy && reader instanceof BsonBinaryReader
+                && reader.getCurrentBsonType() == BsonType.ARRAY) {
+            return readLazyList((BsonBinaryReader) reader, fc);
+        }
+        return readValue(reader, decoderContext, fc);
+    }
+
+    /**
+     * 复制数组字段的原始字节并跳过该字段，字节包装为 {"v": [...]} 文档，解码时可直接复用 readList
+     */
+    private static List<Object> readLazyList(final BsonBinaryReader reader, final FieldCodec fc) {
+        BsonInput input = reader.getBsonInput();
+        BsonInputMark mark = input.getMark(Integer.MAX_VALUE);
+        int size = input.readInt32();
+        mark.reset();
+
+        int total = size + LAZY_HEADER.length + 1;
+        byte[] raw = new byte[total];
+        raw[0] = (byte) total;
+        raw[1] = (byte) (total >>> 8);
+        raw[2] = (byte) (total >>> 16);
+        raw[3] = (byte) (total >>> 24);
+        System.arraycopy(LAZY_HEADER, 4, raw, 4, LAZY_HEADER.length - 4);
+        input.readBytes(raw, LAZY_HEADER.length, size);
+        mark.reset();
+        // 由 reader 自己跳过，保持其内部状态一致
+        reader.skipValue();
+        return new LazyBsonList(raw, fc.lazyDecoder);
+    }
+
+    private List<Object> decodeLazyList(final byte[] raw, final FieldCodec fc) {
+        try (BsonBinaryReader reader = new BsonBinaryReader(ByteBuffer.wrap(raw))) {
+            reader.readStartDocument();
+            reader.readBsonType();
+            reader.skipName();
+            return readList(reader, DecoderContext.builder().build(), fc);
+        }
+    }
 
     private Object readValue(final BsonReader reader, final DecoderContext decoderContext,
-                             Class<?> clazz) {
+                             FieldCodec fc) {
         BsonType bsonType = reader.getCurrentBsonType();
         if (bsonType == BsonType.NULL) {
             reader.readNull();
             return null;
         }
         if (bsonType == BsonType.ARRAY) {
-            return readList(reader, decoderContext, clazz);
+            return readList(reader, decoderContext, fc);
         }
-        if (null != clazz) {
-            return registry.get(clazz).decode(reader, decoderContext);
+        if (null != fc && null != fc.clazz) {
+            Codec<?> codec = fc.decoder != null ? fc.decoder : codecFor(fc.clazz);
+            return codec.decode(reader, decoderContext);
         }
-        return valueTransformer.transform(registry.get(bsonTypeClassMap.get(bsonType)).decode(
-                reader, decoderContext));
+        return valueTransformer.transform(codecFor(bsonType).decode(reader, decoderContext));
     }
 
     private List<Object> readList(final BsonReader reader, final DecoderContext decoderContext,
-                                  Class<?> clazz) {
+                                  FieldCodec fc) {
         reader.readStartArray();
         List<Object> list = new ArrayList<Object>();
         while (reader.readBsonType() != BsonType.END_OF_DOCUMENT) {
-            list.add(readValue(reader, decoderContext, clazz));
+            list.add(readValue(reader, decoderContext, fc));
         }
         reader.readEndArray();
         return list;
@@ -185,7 +491,7 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
     @Override
     public T generateIdIfAbsentFromDocument(T obj) {
         if (!documentHasId(obj)) {
-            methodUtil.setBeanValue(obj, ID_FIELD_NAME, idGenerator.generate());
+            methodUtil.setBeanValue(obj, ID_FIELD_NAME, IdGenerators.convert(idGenerator.generate(), idType));
         }
         return obj;
     }
@@ -231,4 +537,37 @@ public class ObjectCodec<T> implements CollectibleCodec<T> {
         return idHoldingDocument.get(ID_FIELD_NAME);
     }
 
+    /**
+     * 单个字段绑定好的 Codec
+     */
+    private static final class FieldCodec {
+
+        /**
+         * 属性声明类型（基本类型已装箱）
+         */
+        final Class<?> type;
+        /**
+         * 按声明类型绑定的 Codec，运行时类型与声明类型一致时使用
+         */
+        final Codec<?> encoder;
+        /**
+         * 嵌套的 Bson 类型或 List 元素类型
+         */
+        final Class<?> clazz;
+        /**
+         * 按 clazz 绑定的 Codec，同时用于 List 元素的编码
+         */
+        final Codec<?> decoder;
+        /**
+         * 延迟列表的解码函数，仅 lazy 字段有值
+         */
+        Function<byte[], List<Object>> lazyDecoder;
+
+        FieldCodec(Class<?> type, Codec<?> encoder, Class<?> clazz, Codec<?> decoder) {
+            this.type = type;
+            this.encoder = encoder;
+            this.clazz = clazz;
+            this.decoder = decoder;
+        }
+    }
 }
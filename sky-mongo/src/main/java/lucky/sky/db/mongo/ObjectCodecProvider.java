@@ -7,19 +7,41 @@ import org.bson.codecs.configuration.CodecRegistry;
  * 类似过滤器，根据泛型类class来判断使用具体的映射规则进行映射封装
  * <p>
  * 使用注解来处理
+ * <p>
+ * 每个 provider 实例按类缓存已创建的 ObjectCodec，因此一个实例只应注册到一个 CodecRegistry 中
  */
 public class ObjectCodecProvider implements CodecProvider {
 
+    private static final ObjectCodec<?>[] NOT_BSON = new ObjectCodec<?>[0];
+
+    /**
+     * 带 Bson 注解的类对应长度为 1 的持有数组（ClassValue 计算时拿不到 registry，只能先占位再填充），
+     * 其它类对应 NOT_BSON，顺带缓存了注解判断的结果
+     */
+    private final ClassValue<ObjectCodec<?>[]> codecs = new ClassValue<ObjectCodec<?>[]>() {
+        @Override
+        protected ObjectCodec<?>[] computeValue(Class<?> type) {
+            return type.isAnnotationPresent(Bson.class) ? new ObjectCodec<?>[1] : NOT_BSON;
+        }
+    };
+
     /* (non-Javadoc)
      * @see org.bson.codecs.configuration.CodecProvider#get(java.lang.Class, org.bson.codecs.configuration.CodecRegistry)
      */
     @Override
     public <T> org.bson.codecs.Codec<T> get(Class<T> clazz, CodecRegistry registry) {
         //根据注解判断
-        if (clazz.isAnnotationPresent(Bson.class)) {
+        ObjectCodec<?>[] holder = codecs.get(clazz);
+        if (holder != NOT_BSON) {
 //			return (Codec<T>) new ObjectCodec(clazz);
             //综合考虑，为了兼容非泛型连接，需要在连接时候定义所有registry并在这里传递
-            return (org.bson.codecs.Codec<T>) new ObjectCodec(clazz, registry);
+            ObjectCodec<?> codec = holder[0];
+            if (codec == null) {
+                // 并发时可能重复创建，结果等价，保留最后一个即可
+                codec = new ObjectCodec(clazz, registry);
+                holder[0] = codec;
+            }
+            return (org.bson.codecs.Codec<T>) codec;
         }
         return null;
     }
@@ -0,0 +1,235 @@
+package lucky.sky.db.mongo;
+
+import com.google.common.base.Defaults;
+import com.google.common.primitives.Primitives;
+import org.bson.codecs.configuration.CodecConfigurationException;
+
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+/**
+ * 按类解析一次的实体创建方式，替代每个文档都调用 Class.newInstance。
+ * <p>
+ * 选择顺序：标注 {@link BsonConstructor} 的构造函数、record 的规范构造函数、无参构造函数、
+ * 参数与全部实例属性一一对应的全参构造函数。
+ */
+final class ObjectCreator {
+
+    private final Class<?> clazz;
+    /**
+     * 无参构造函数生成的 Supplier
+     */
+    private final Supplier<Object> supplier;
+    /**
+     * 带参构造函数，类型为 (Object[])Object
+     */
+    private final MethodHandle constructor;
+    private final Class<?>[] parameterTypes;
+    /**
+     * 构造参数对应的属性名
+     */
+    private final String[] parameterFields;
+
+    private ObjectCreator(Class<?> clazz, Supplier<Object> supplier, MethodHandle constructor,
+                          Class<?>[] parameterTypes, String[] parameterFields) {
+        this.clazz = clazz;
+        this.supplier = supplier;
+        this.constructor = constructor;
+        this.parameterTypes = parameterTypes;
+        this.parameterFields = parameterFields;
+    }
+
+    static ObjectCreator of(Class<?> clazz) {
+        if (clazz.isInterface() || Modifier.isAbstract(clazz.getModifiers())) {
+            return new ObjectCreator(clazz, null, null, null, null);
+        }
+        List<Field> fields = instanceFields(clazz);
+        Constructor<?> creator = findCreator(clazz, fields);
+        try {
+            if (creator == null) {
+                Constructor<?> noArgs = clazz.getDeclaredConstructor();
+                return new ObjectCreator(clazz, supplier(clazz, noArgs), null, null, null);
+            }
+            MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+            MethodHandle mh = lookup.unreflectConstructor(creator);
+            int arity = creator.getParameterCount();
+            mh = mh.asType(MethodType.methodType(Object.class, creator.getParameterTypes()))
+                    .asSpreader(Object[].class, arity)
+                    .asType(MethodType.methodType(Object.class, Object[].class));
+            return new ObjectCreator(clazz, null, mh, creator.getParameterTypes(),
+                    parameterFields(creator, fields));
+        } catch (NoSuchMethodException | IllegalAccessException e) {
+            // 没有可用构造函数的类型，解码时再报错
+            return new ObjectCreator(clazz, null, null, null, null);
+        }
+    }
+
+    private static List<Field> instanceFields(Class<?> clazz) {
+        List<Field> list = new ArrayList<>();
+        for (Field field : clazz.getDeclaredFields()) {
+            if (!Modifier.isStatic(field.getModifiers()) && !field.isSynthetic()) {
+                list.add(field);
+            }
+        }
+        return list;
+    }
+
+    private static Constructor<?> findCreator(Class<?> clazz, List<Field> fields) {
+        Constructor<?>[] ctors = clazz.getDeclaredConstructors();
+        for (Constructor<?> ctor : ctors) {
+            if (ctor.isAnnotationPresent(BsonConstructor.class)) {
+                return ctor;
+            }
+        }
+        boolean isRecord = clazz.getSuperclass() != null
+                && "java.lang.Record".equals(clazz.getSuperclass().getName());
+        if (!isRecord) {
+            for (Constructor<?> ctor : ctors) {
+                if (ctor.getParameterCount() == 0) {
+                    return null;
+                }
+            }
+        }
+        // record 的规范构造函数与 Lombok @AllArgsConstructor 一样，参数顺序即属性声明顺序
+        for (Constructor<?> ctor : ctors) {
+            if (matchesFields(ctor, fields)) {
+                return ctor;
+            }
+        }
+        return null;
+    }
+
+    private static boolean matchesFields(Constructor<?> ctor, List<Field> fields) {
+        Class<?>[] types = ctor.getParameterTypes();
+        if (types.length == 0 || types.length != fields.size()) {
+            return false;
+        }
+        for (int i = 0; i < types.length; i++) {
+            if (types[i] != fields.get(i).getType()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String[] parameterFields(Constructor<?> ctor, List<Field> fields) {
+        Parameter[] params = ctor.getParameters();
+        String[] names = new String[params.length];
+        boolean byPosition = matchesFields(ctor, fields);
+        for (int i = 0; i < params.length; i++) {
+            if (byPosition) {
+                names[i] = fields.get(i).getName();
+            } else if (params[i].isNamePresent()) {
+                names[i] = params[i].getName();
+            } else {
+                throw new CodecConfigurationException(String.format(
+                        "%s: parameter names of @BsonConstructor are not available, compile with -parameters",
+                        ctor.getDeclaringClass().getName()));
+            }
+        }
+        return names;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Object> supplier(Class<?> clazz, Constructor<?> ctor)
+            throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+        MethodHandle mh = lookup.unreflectConstructor(ctor);
+        try {
+            return (Supplier<Object>) LambdaMetafactory.metafactory(lookup, "get",
+                    MethodType.methodType(Supplier.class), MethodType.methodType(Object.class),
+                    mh, MethodType.methodType(clazz)).getTarget().invoke();
+        } catch (Throwable e) {
+            // 生成失败时退回到直接调用句柄
+            MethodHandle generic = mh.asType(MethodType.methodType(Object.class));
+            return () -> {
+                try {
+                    return (Object) generic.invokeExact();
+                } catch (Throwable t) {
+                    throw new CodecConfigurationException("failed to create " + clazz.getName(), t);
+                }
+            };
+        }
+    }
+
+    /**
+     * 是否通过带参构造函数创建，此时属性值需先读出再一次性传入
+     */
+    boolean hasParameters() {
+        return constructor != null;
+    }
+
+    int parameterCount() {
+        return parameterTypes == null ? 0 : parameterTypes.length;
+    }
+
+    /**
+     * 指定属性在构造参数中的位置，不在构造参数中返回 -1
+     */
+    int parameterIndex(String fieldName) {
+        if (parameterFields != null) {
+            for (int i = 0; i < parameterFields.length; i++) {
+                if (parameterFields[i].equals(fieldName)) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    Object newInstance() {
+        if (supplier == null) {
+            throw new CodecConfigurationException(
+                    "no usable constructor found to create " + clazz.getName());
+        }
+        return supplier.get();
+    }
+
+    /**
+     * @param args 按构造参数顺序排列的值，缺失的基本类型参数使用默认值
+     */
+    Object newInstance(Object[] args) {
+        for (int i = 0; i < args.length; i++) {
+            args[i] = coerce(parameterTypes[i], args[i]);
+        }
+        try {
+            return (Object) constructor.invokeExact(args);
+        } catch (Throwable e) {
+            throw new CodecConfigurationException("failed to create " + clazz.getName(), e);
+        }
+    }
+
+    private static Object coerce(Class<?> type, Object value) {
+        if (value == null) {
+            return type.isPrimitive() ? Defaults.defaultValue(type) : null;
+        }
+        Class<?> wrapped = Primitives.wrap(type);
+        if (!(value instanceof Number) || wrapped.isInstance(value)) {
+            return value;
+        }
+        Number n = (Number) value;
+        if (wrapped == Long.class) {
+            return n.longValue();
+        } else if (wrapped == Integer.class) {
+            return n.intValue();
+        } else if (wrapped == Double.class) {
+            return n.doubleValue();
+        } else if (wrapped == Float.class) {
+            return n.floatValue();
+        } else if (wrapped == Short.class) {
+            return n.shortValue();
+        } else if (wrapped == Byte.class) {
+            return n.byteValue();
+        }
+        return value;
+    }
+}
@@ -5,12 +5,27 @@ import lucky.sky.db.mongo.convert.MethodNameConverter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.ObjLongConsumer;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
 
 
 public final class ObjectMethodCache {
@@ -18,20 +33,32 @@ public final class ObjectMethodCache {
     private static final Logger log = LoggerFactory.getLogger(ObjectMethodCache.class);
 
 
-    private static HashMap<String, ObjectMethodUtil> objectMethodUtils = new HashMap<>();
+    /**
+     * 按类缓存反射元数据。ClassValue 读取无锁，且缓存随 Class 一起回收，不会阻止类加载器卸载
+     */
+    private static final ClassValue<ObjectMethodUtil> objectMethodUtils = new ClassValue<ObjectMethodUtil>() {
+        @Override
+        protected ObjectMethodUtil computeValue(Class<?> type) {
+            return new ObjectMethodUtil(type);
+        }
+    };
 
     public ObjectMethodCache() {
     }
 
-    @SuppressWarnings("rawtypes")
-    public synchronized static ObjectMethodUtil getObjectMethodUtil(Class clazz) {
-        ObjectMethodUtil objectMethodUtil = objectMethodUtils.get(clazz.getName());
-        if (objectMethodUtil != null) {
-            return objectMethodUtil;
-        }
-        objectMethodUtil = new ObjectMethodUtil(clazz);
-        objectMethodUtils.put(clazz.getName(), objectMethodUtil);
-        return objectMethodUtil;
+    /**
+     * boolean 属性的免装箱 setter，JDK 中没有对应的函数接口。
+     * 需为 public，才能由 LambdaMetafactory 在实体类所在的包中生成实现
+     */
+    @FunctionalInterface
+    public interface ObjBooleanConsumer {
+
+        void accept(Object obj, boolean value);
+    }
+
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public static ObjectMethodUtil getObjectMethodUtil(Class clazz) {
+        return objectMethodUtils.get(clazz);
     }
 
     /**
@@ -41,16 +68,29 @@ public final class ObjectMethodCache {
 
         private MethodAccess methodAccess;
         private Map<String, FieldInfo> fieldInfos = new HashMap<String, FieldInfo>();
+        /**
+         * 按属性声明顺序排列的字段，编码时直接遍历，避免每个文档构造临时 Map
+         */
+        private FieldInfo[] fields;
+        private FieldNameIndex nameIndex;
+        private ObjectCreator creator;
+        /**
+         * 解码时跳过的未映射字段数及其字节数（仅二进制读取时统计字节）
+         */
+        private final LongAdder skippedFields = new LongAdder();
+        private final LongAdder skippedBytes = new LongAdder();
 
         @SuppressWarnings("rawtypes")
         public ObjectMethodUtil(Class clazz) {
             methodAccess = MethodAccess.get(clazz);
+            creator = ObjectCreator.of(clazz);
             initField(clazz);
         }
 
         @SuppressWarnings("rawtypes")
         private void initField(Class clazz) {
             Field[] fields = clazz.getDeclaredFields();
+            List<FieldInfo> ordered = new ArrayList<>(fields.length);
             Bson ann = null;
             String key = null;
             for (Field field : fields) {
@@ -63,14 +103,189 @@ public final class ObjectMethodCache {
                     //需要特別注意，目前默认属性的getset方法全部遵照注解规范
                     boolean isBoolean = (field.getType() == boolean.class);
                     int getIndex = getMethodIndexOfGet(field.getName(), isBoolean);
+                    if (getIndex == -1) {
+                        // record 风格的访问器，如 name()
+                        getIndex = getIndex(field.getName());
+                    }
                     int setIndex = getMethodIndexOfSet(field.getName(), isBoolean);
-                    if (getIndex == -1 || setIndex == -1) {
+                    int ctorIndex = creator.parameterIndex(field.getName());
+                    // 没有 setter 的属性只有在能通过构造函数赋值时才映射
+                    if (getIndex == -1 || (setIndex == -1 && ctorIndex == -1)) {
                         continue;
                     }
-                    FieldInfo fi = new FieldInfo(getIndex, setIndex, getFieldClass(field));
-                    this.fieldInfos.put(key, fi);
+                    FieldInfo fi = new FieldInfo(key, field.getType(), getIndex, setIndex,
+                            getFieldClass(field));
+                    fi.ctorIndex = ctorIndex;
+                    // 只有声明为 List 的属性才能直接持有延迟列表
+                    fi.lazy = ann.lazy() && List.class.isAssignableFrom(field.getType())
+                            && field.getType().isAssignableFrom(LazyBsonList.class);
+                    if (setIndex != -1) {
+                        bindPrimitiveAccessor(clazz, fi);
+                    }
+                    if (this.fieldInfos.put(key, fi) != null) {
+                        ordered.removeIf(f -> f.name.equals(fi.name));
+                    }
+                    ordered.add(fi);
                 }
             }
+            this.fields = ordered.toArray(new FieldInfo[0]);
+            for (int i = 0; i < this.fields.length; i++) {
+                this.fields[i].slot = i;
+            }
+            this.nameIndex = new FieldNameIndex(this.fields);
+        }
+
+        /**
+         * 按字段名定位字段，hint 为预期槽位，未映射的字段返回 null
+         */
+        FieldInfo fieldInfo(String key, int hint) {
+            return nameIndex.find(key, hint);
+        }
+
+        /**
+         * int/long/double/boolean 属性额外生成按实际类型调用 getter/setter 的函数对象，读写时不装箱。
+         * 使用 LambdaMetafactory 生成，调用点可被 JIT 内联，比直接持有 MethodHandle 快得多
+         */
+        @SuppressWarnings("rawtypes")
+        private void bindPrimitiveAccessor(Class clazz, FieldInfo fi) {
+            PrimitiveKind kind = PrimitiveKind.of(fi.type);
+            if (kind == PrimitiveKind.NONE) {
+                return;
+            }
+            try {
+                Method getter = clazz.getMethod(methodAccess.getMethodNames()[fi.getIndex]);
+                Method setter = clazz.getMethod(methodAccess.getMethodNames()[fi.setIndex],
+                        methodAccess.getParameterTypes()[fi.setIndex]);
+                MethodHandles.Lookup lookup = MethodHandles.privateLookupIn(clazz, MethodHandles.lookup());
+                switch (kind) {
+                    case INT:
+                        fi.getter = accessor(lookup, getter, ToIntFunction.class, "applyAsInt",
+                                MethodType.methodType(int.class, Object.class));
+                        fi.setter = accessor(lookup, setter, ObjIntConsumer.class, "accept",
+                                MethodType.methodType(void.class, Object.class, int.class));
+                        break;
+                    case LONG:
+                        fi.getter = accessor(lookup, getter, ToLongFunction.class, "applyAsLong",
+                                MethodType.methodType(long.class, Object.class));
+                        fi.setter = accessor(lookup, setter, ObjLongConsumer.class, "accept",
+                                MethodType.methodType(void.class, Object.class, long.class));
+                        break;
+                    case DOUBLE:
+                        fi.getter = accessor(lookup, getter, ToDoubleFunction.class, "applyAsDouble",
+                                MethodType.methodType(double.class, Object.class));
+                        fi.setter = accessor(lookup, setter, ObjDoubleConsumer.class, "accept",
+                                MethodType.methodType(void.class, Object.class, double.class));
+                        break;
+                    default:
+                        fi.getter = accessor(lookup, getter, Predicate.class, "test",
+                                MethodType.methodType(boolean.class, Object.class));
+                        fi.setter = accessor(lookup, setter, ObjBooleanConsumer.class, "accept",
+                                MethodType.methodType(void.class, Object.class, boolean.class));
+                        break;
+                }
+                fi.kind = kind;
+            } catch (Throwable e) {
+                // 退回到 MethodAccess 的装箱调用
+                fi.getter = null;
+                fi.setter = null;
+                log.warn("bind primitive accessor failed, class:{}, key:{}", clazz.getName(), fi.name, e);
+            }
+        }
+
+        private static Object accessor(MethodHandles.Lookup lookup, Method method, Class<?> fnType,
+                                       String fnName, MethodType fnMethodType) throws Throwable {
+            MethodHandle target = lookup.unreflect(method);
+            MethodHandle factory = LambdaMetafactory.metafactory(lookup, fnName,
+                    MethodType.methodType(fnType), fnMethodType, target, target.type()).getTarget();
+            return factory.invoke();
+        }
+
+        @SuppressWarnings("unchecked")
+        int getInt(Object obj, FieldInfo fi) {
+            return ((ToIntFunction<Object>) fi.getter).applyAsInt(obj);
+        }
+
+        @SuppressWarnings("unchecked")
+        long getLong(Object obj, FieldInfo fi) {
+            return ((ToLongFunction<Object>) fi.getter).applyAsLong(obj);
+        }
+
+        @SuppressWarnings("unchecked")
+        double getDouble(Object obj, FieldInfo fi) {
+            return ((ToDoubleFunction<Object>) fi.getter).applyAsDouble(obj);
+        }
+
+        @SuppressWarnings("unchecked")
+        boolean getBoolean(Object obj, FieldInfo fi) {
+            return ((Predicate<Object>) fi.getter).test(obj);
+        }
+
+        @SuppressWarnings("unchecked")
+        void setInt(Object obj, FieldInfo fi, int value) {
+            try {
+                ((ObjIntConsumer<Object>) fi.setter).accept(obj, value);
+            } catch (Exception e) {
+                log.error("mongo to bean error class:{}, key:{}, value:{}, error:{}",
+                        obj.getClass().getName(), fi.name, value, e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void setLong(Object obj, FieldInfo fi, long value) {
+            try {
+                ((ObjLongConsumer<Object>) fi.setter).accept(obj, value);
+            } catch (Exception e) {
+                log.error("mongo to bean error class:{}, key:{}, value:{}, error:{}",
+                        obj.getClass().getName(), fi.name, value, e);
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        void setDouble(Object obj, FieldInfo fi, double value) {
+            try {
+                ((ObjDoubleConsumer<Object>) fi.setter).accept(obj, value);
+            } catch (Exception e) {
+                log.error("mongo to bean error class:{}, key:{}, value:{}, error:{}",
+                        obj.getClass().getName(), fi.name, value, e);
+            }
+        }
+
+        void setBoolean(Object obj, FieldInfo fi, boolean value) {
+            try {
+                ((ObjBooleanConsumer) fi.setter).accept(obj, value);
+            } catch (Exception e) {
+                log.error("mongo to bean error class:{}, key:{}, value:{}, error:{}",
+                        obj.getClass().getName(), fi.name, value, e);
+            }
+        }
+
+        /**
+         * 实体创建方式
+         */
+        ObjectCreator creator() {
+            return creator;
+        }
+
+        /**
+         * 按声明顺序返回全部映射字段，调用方不得修改返回的数组
+         */
+        FieldInfo[] fields() {
+            return fields;
+        }
+
+        void recordSkipped(int bytes) {
+            skippedFields.increment();
+            if (bytes > 0) {
+                skippedBytes.add(bytes);
+            }
+        }
+
+        long skippedFields() {
+            return skippedFields.sum();
+        }
+
+        long skippedBytes() {
+            return skippedBytes.sum();
         }
 
         private int getMethodIndexOfGet(String name, boolean isBoolean) {
@@ -102,6 +317,13 @@ public final class ObjectMethodCache {
             return methodAccess.invoke(obj, fi.getIndex);
         }
 
+        /**
+         * 取值，直接使用已解析的字段信息，省去按名称查找
+         */
+        public Object getBeanValue(Object obj, FieldInfo fi) {
+            return methodAccess.invoke(obj, fi.getIndex);
+        }
+
         /**
          * 赋值
          */
@@ -113,11 +335,21 @@ public final class ObjectMethodCache {
             if (null == fi) {
                 return;
             }
+            setBeanValue(obj, fi, value);
+        }
+
+        /**
+         * 赋值，直接使用已解析的字段信息，省去按名称查找
+         */
+        public void setBeanValue(Object obj, FieldInfo fi, Object value) {
+            if (fi.setIndex == -1) {
+                return;
+            }
             try {
                 methodAccess.invoke(obj, fi.setIndex, value);
             } catch (Exception e) {
                 log.error("mongo to bean error class:{}, key:{}, value:{}, error:{}",
-                        obj.getClass().getName(), key, value, e);
+                        obj.getClass().getName(), fi.name, value, e);
             }
         }
 
@@ -126,9 +358,9 @@ public final class ObjectMethodCache {
          * 获取需要转换成mongodb的key-value集合
          */
         public Map<String, Object> getObjectKeyValue(Object obj) {
-            Map<String, Object> map = new HashMap<String, Object>();
-            for (String key : fieldInfos.keySet()) {
-                map.put(key, getBeanValue(obj, key));
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            for (FieldInfo fi : fields) {
+                map.put(fi.name, getBeanValue(obj, fi));
             }
             return map;
         }
@@ -164,15 +396,72 @@ public final class ObjectMethodCache {
 
         static class FieldInfo {
 
+            String name;
+            /**
+             * 在 fields 数组中的位置
+             */
+            int slot;
             int getIndex;
+            /**
+             * 没有 setter 时为 -1，此时只能通过构造参数赋值
+             */
             int setIndex;
+            /**
+             * 在构造参数中的位置，不通过带参构造函数创建时为 -1
+             */
+            int ctorIndex = -1;
+            /**
+             * 嵌套的 Bson 类型或 List 元素类型，其它情况为 null
+             */
             Class<?> clazz;
+            /**
+             * 属性声明类型
+             */
+            Class<?> type;
+            /**
+             * 基本类型属性的读写方式，NONE 表示走 MethodAccess
+             */
+            PrimitiveKind kind = PrimitiveKind.NONE;
+            /**
+             * 是否延迟解码，见 {@link Bson#lazy()}
+             */
+            boolean lazy;
+            /**
+             * 基本类型属性的读写函数，如 ToIntFunction / ObjIntConsumer
+             */
+            Object getter;
+            Object setter;
 
-            public FieldInfo(int getIndex, int setIndex, Class<?> clazz) {
+            public FieldInfo(String name, Class<?> type, int getIndex, int setIndex, Class<?> clazz) {
+                this.name = name;
+                this.type = type;
                 this.getIndex = getIndex;
                 this.setIndex = setIndex;
                 this.clazz = clazz;
             }
         }
+
+        /**
+         * 支持免装箱读写的基本类型
+         */
+        enum PrimitiveKind {
+            NONE, INT, LONG, DOUBLE, BOOLEAN;
+
+            static PrimitiveKind of(Class<?> type) {
+                if (type == int.class) {
+                    return INT;
+                }
+                if (type == long.class) {
+                    return LONG;
+                }
+                if (type == double.class) {
+                    return DOUBLE;
+                }
+                if (type == boolean.class) {
+                    return BOOLEAN;
+                }
+                return NONE;
+            }
+        }
     }
 }
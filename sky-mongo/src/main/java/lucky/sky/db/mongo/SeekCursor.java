@@ -0,0 +1,154 @@
+package lucky.sky.db.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BSONObject;
+import org.bson.BasicBSONDecoder;
+import org.bson.BasicBSONEncoder;
+import org.mongodb.morphia.mapping.Mapper;
+
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * seek 分页的游标：把上一页最后一条记录的排序字段值编码为 BSON 再转为 URL 安全的 Base64，
+ * 游标中同时记录排序方式，用于校验与查询是否一致
+ */
+final class SeekCursor {
+
+    private SeekCursor() {
+    }
+
+    /**
+     * 在排序中补充 _id 作为最后的排序字段，保证顺序唯一；_id 之后的排序字段没有意义，去掉
+     */
+    static DBObject sortWithId(DBObject sort) {
+        BasicDBObject result = new BasicDBObject();
+        if (sort != null) {
+            for (String key : sort.keySet()) {
+                result.put(key, ((Number) sort.get(key)).intValue() < 0 ? -1 : 1);
+                if (Mapper.ID_KEY.equals(key)) {
+                    return result;
+                }
+            }
+        }
+        result.put(Mapper.ID_KEY, 1);
+        return result;
+    }
+
+    /**
+     * 转为 Query.order 使用的字符串，如 -createTime,_id
+     */
+    static String orderString(DBObject sort) {
+        StringBuilder sb = new StringBuilder();
+        for (String key : sort.keySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            if (((Number) sort.get(key)).intValue() < 0) {
+                sb.append('-');
+            }
+            sb.append(key);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 从文档中取出各排序字段的值，支持 a.b 形式的路径
+     */
+    static List<Object> valuesOf(DBObject doc, DBObject sort) {
+        List<Object> values = new ArrayList<>(sort.keySet().size());
+        for (String key : sort.keySet()) {
+            Object value = doc;
+            for (String part : key.split("\\.")) {
+                value = value instanceof Map ? ((Map<?, ?>) value).get(part)
+                        : value instanceof DBObject ? ((DBObject) value).get(part) : null;
+            }
+            values.add(value);
+        }
+        return values;
+    }
+
+    /**
+     * 保证投影返回所有排序字段，否则取不到下一页游标需要的排序值：
+     * 包含式投影补充排序字段（已包含其上级字段时不再补充），排除式投影去掉与排序字段路径重叠的排除项
+     */
+    static DBObject withSortFields(DBObject projection, DBObject sort) {
+        BasicDBObject result = new BasicDBObject(projection.toMap());
+        boolean inclusive = false;
+        for (String field : result.keySet()) {
+            if (!Mapper.ID_KEY.equals(field) && isInclude(result.get(field))) {
+                inclusive = true;
+            }
+        }
+        for (String key : sort.keySet()) {
+            boolean covered = false;
+            Iterator<Map.Entry<String, Object>> it = result.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<String, Object> entry = it.next();
+                String field = entry.getKey();
+                boolean parent = field.equals(key) || key.startsWith(field + ".");
+                boolean child = field.startsWith(key + ".");
+                if ((parent || child) && isExclude(entry.getValue())) {
+                    it.remove();
+                } else if (inclusive && child && isInclude(entry.getValue())) {
+                    // 由排序字段本身代替，避免路径冲突
+                    it.remove();
+                } else if (parent && isInclude(entry.getValue())) {
+                    covered = true;
+                }
+            }
+            if (inclusive && !covered) {
+                result.put(key, 1);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInclude(Object value) {
+        return value instanceof Boolean ? (Boolean) value
+                : value instanceof Number && ((Number) value).intValue() != 0;
+    }
+
+    private static boolean isExclude(Object value) {
+        return value instanceof Boolean ? !(Boolean) value
+                : value instanceof Number && ((Number) value).intValue() == 0;
+    }
+
+    static String encode(DBObject sort, List<Object> values) {
+        BasicDBObject doc = new BasicDBObject("s", sort).append("v", values);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(new BasicBSONEncoder().encode(doc));
+    }
+
+    /**
+     * @throws IllegalArgumentException 游标无效或与查询的排序不一致
+     */
+    static List<Object> decode(String cursor, DBObject sort) {
+        BSONObject doc;
+        try {
+            doc = new BasicBSONDecoder().readObject(Base64.getUrlDecoder().decode(cursor));
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("invalid page cursor: " + cursor, e);
+        }
+        if (!(doc.get("s") instanceof BSONObject) || !(doc.get("v") instanceof List)) {
+            throw new IllegalArgumentException("invalid page cursor: " + cursor);
+        }
+        BSONObject cursorSort = (BSONObject) doc.get("s");
+        // BasicDBObject.equals 不比较字段顺序，另外比较字段列表
+        if (!new BasicDBObject(cursorSort.toMap()).equals(sort)
+                || !new ArrayList<>(cursorSort.keySet()).equals(new ArrayList<>(sort.keySet()))) {
+            throw new IllegalArgumentException("page cursor does not match the query's sort " + sort);
+        }
+        List<Object> values = new ArrayList<>();
+        for (Object value : (List<?>) doc.get("v")) {
+            values.add(value);
+        }
+        if (values.size() != sort.keySet().size()) {
+            throw new IllegalArgumentException("invalid page cursor: " + cursor);
+        }
+        return values;
+    }
+}
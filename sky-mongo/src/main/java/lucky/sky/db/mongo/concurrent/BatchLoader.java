@@ -0,0 +1,216 @@
+package lucky.sky.db.mongo.concurrent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * 把逐个 key 的加载收集为批量加载（DataLoader 模式），有两种收集方式：
+ * <ul>
+ * <li>时间窗口：windowMicros &gt; 0 时，各线程在同一窗口内的请求合并为一批，
+ * 由 {@link MongoExecutors#batchExecutor()} 执行；</li>
+ * <li>批处理范围：{@link #openScope()} 之后当前线程的 loadAsync 暂不执行，在 {@link Scope#close()}
+ * 或调用同步的 {@link #load(Object)} 时一次执行。</li>
+ * </ul>
+ * 一批达到 maxBatchSize 时立即执行。批量函数返回的 Map 中没有的 key 加载结果为 null，
+ * 批量函数抛出的异常传给该批的每个请求。
+ *
+ * @param <K> key 类型
+ * @param <V> 结果类型
+ */
+public final class BatchLoader<K, V> {
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("mongo-batch-loader-%d").setDaemon(true).build());
+
+    private final Function<List<K>, Map<K, V>> batchFunction;
+    private final long windowMicros;
+    private final int maxBatchSize;
+    private final ThreadLocal<Scope> scope = new ThreadLocal<>();
+    /**
+     * 当前时间窗口内收集的请求，由 this 保护
+     */
+    private Batch window;
+
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+
+    /**
+     * @param batchFunction 批量加载函数，参数中的 key 不重复
+     * @param windowMicros  收集窗口（微秒），0 表示只在批处理范围内收集
+     * @param maxBatchSize  单批 key 数上限
+     */
+    public BatchLoader(Function<List<K>, Map<K, V>> batchFunction, long windowMicros, int maxBatchSize) {
+        this.batchFunction = batchFunction;
+        this.windowMicros = windowMicros;
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+    }
+
+    public V load(K key) {
+        CompletableFuture<V> future = loadAsync(key);
+        Scope current = scope.get();
+        if (current != null) {
+            // 在批处理范围内同步等待时，先执行已收集的请求，避免等待到范围结束
+            current.dispatch();
+        }
+        return MongoExecutors.await(future);
+    }
+
+    public CompletableFuture<V> loadAsync(K key) {
+        requests.increment();
+        Scope current = scope.get();
+        if (current != null) {
+            return current.add(key);
+        }
+        if (windowMicros <= 0) {
+            Batch single = new Batch();
+            CompletableFuture<V> future = single.add(key);
+            dispatch(single);
+            return future;
+        }
+        Batch full = null;
+        CompletableFuture<V> future;
+        synchronized (this) {
+            if (window == null) {
+                Batch created = new Batch();
+                window = created;
+                TIMER.schedule(() -> closeWindow(created), windowMicros, TimeUnit.MICROSECONDS);
+            }
+            future = window.add(key);
+            if (window.size() >= maxBatchSize) {
+                full = window;
+                window = null;
+            }
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return future;
+    }
+
+    private void closeWindow(Batch batch) {
+        synchronized (this) {
+            if (window != batch) {
+                // 已因达到上限而执行
+                return;
+            }
+            window = null;
+        }
+        // 不能使用查询线程池：其满时由调用线程执行，会在定时线程上执行查询，推迟所有加载器的窗口
+        MongoExecutors.batchExecutor().execute(() -> dispatch(batch));
+    }
+
+    private void dispatch(Batch batch) {
+        if (batch.futures.isEmpty()) {
+            return;
+        }
+        batches.increment();
+        List<K> keys = new ArrayList<>(batch.futures.keySet());
+        try {
+            Map<K, V> values = batchFunction.apply(keys);
+            for (Map.Entry<K, CompletableFuture<V>> entry : batch.futures.entrySet()) {
+                entry.getValue().complete(values.get(entry.getKey()));
+            }
+        } catch (RuntimeException | Error e) {
+            for (CompletableFuture<V> future : batch.futures.values()) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    /**
+     * 当前线程的请求是否会与其它请求合并：开启了时间窗口，或当前线程在批处理范围内
+     */
+    public boolean isBatching() {
+        return windowMicros > 0 || scope.get() != null;
+    }
+
+    /**
+     * 在当前线程开启批处理范围，已开启时返回外层范围（内层 close 不执行）
+     */
+    public Scope openScope() {
+        Scope current = scope.get();
+        if (current != null) {
+            current.depth++;
+            return current;
+        }
+        current = new Scope();
+        scope.set(current);
+        return current;
+    }
+
+    /**
+     * 收到的加载请求数
+     */
+    public long getRequestCount() {
+        return requests.sum();
+    }
+
+    /**
+     * 实际执行的批量加载次数
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    private final class Batch {
+
+        final Map<K, CompletableFuture<V>> futures = new LinkedHashMap<>();
+
+        CompletableFuture<V> add(K key) {
+            return futures.computeIfAbsent(key, k -> new CompletableFuture<>());
+        }
+
+        int size() {
+            return futures.size();
+        }
+    }
+
+    /**
+     * 批处理范围，只能在开启它的线程中使用
+     */
+    public final class Scope implements Closeable {
+
+        private Batch batch = new Batch();
+        private int depth = 1;
+
+        CompletableFuture<V> add(K key) {
+            CompletableFuture<V> future = batch.add(key);
+            if (batch.size() >= maxBatchSize) {
+                dispatch();
+            }
+            return future;
+        }
+
+        /**
+         * 立即执行已收集的请求
+         */
+        public void dispatch() {
+            Batch pending = batch;
+            batch = new Batch();
+            BatchLoader.this.dispatch(pending);
+        }
+
+        /**
+         * 执行剩余的请求并结束范围
+         */
+        @Override
+        public void close() {
+            if (--depth > 0) {
+                return;
+            }
+            scope.remove();
+            dispatch();
+        }
+    }
+}
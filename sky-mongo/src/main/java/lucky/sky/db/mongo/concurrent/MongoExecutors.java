@@ -0,0 +1,105 @@
+package lucky.sky.db.mongo.concurrent;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并发查询和后台写入共用的线程池。
+ * <p>
+ * 查询线程数默认为 CPU 核数的 4 倍（查询以等待网络为主），可通过系统属性 sky.mongo.queryThreads 指定；
+ * 队列满时由调用线程执行，避免无限堆积。
+ */
+public final class MongoExecutors {
+
+    private MongoExecutors() {
+    }
+
+    private static final ExecutorService QUERY_EXECUTOR = createQueryExecutor();
+
+    private static ExecutorService createQueryExecutor() {
+        int threads = Integer.getInteger("sky.mongo.queryThreads",
+                Runtime.getRuntime().availableProcessors() * 4);
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(threads * 16),
+                new ThreadFactoryBuilder().setNameFormat("mongo-query-%d").setDaemon(true).build(),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    public static ExecutorService queryExecutor() {
+        return QUERY_EXECUTOR;
+    }
+
+    private static final ExecutorService WRITE_EXECUTOR = createWriteExecutor();
+
+    private static ExecutorService createWriteExecutor() {
+        int threads = Integer.getInteger("sky.mongo.writeThreads",
+                Runtime.getRuntime().availableProcessors() * 2);
+        // 每个写入器同时最多提交一个后台刷新任务，队列长度受写入器数量限制，不设上限
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("mongo-write-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 后台刷新（BulkWriter 超时刷新、UpdateCoalescer 窗口刷新）使用的线程池，
+     * 定时线程只负责提交任务，一个慢集合的写入不会推迟其它写入器的刷新。
+     * 线程数默认为 CPU 核数的 2 倍，可通过系统属性 sky.mongo.writeThreads 指定
+     */
+    public static ExecutorService writeExecutor() {
+        return WRITE_EXECUTOR;
+    }
+
+    private static final ExecutorService BATCH_EXECUTOR = createBatchExecutor();
+
+    private static ExecutorService createBatchExecutor() {
+        int threads = Integer.getInteger("sky.mongo.batchThreads",
+                Runtime.getRuntime().availableProcessors() * 2);
+        // 队列不设上限，线程池繁忙时任务排队，不会退回到提交任务的定时线程执行
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(),
+                new ThreadFactoryBuilder().setNameFormat("mongo-batch-%d").setDaemon(true).build());
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * BatchLoader 时间窗口到期后执行批量查询的线程池，与查询线程池分开，
+     * 定时线程只提交任务，线程池繁忙时任务排队而不是在定时线程上执行。
+     * 线程数默认为 CPU 核数的 2 倍，可通过系统属性 sky.mongo.batchThreads 指定
+     */
+    public static ExecutorService batchExecutor() {
+        return BATCH_EXECUTOR;
+    }
+
+    /**
+     * 等待结果，任务中的非受检异常原样抛出
+     */
+    public static <V> V await(Future<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while waiting for query", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package lucky.sky.db.mongo.concurrent;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 有界无锁多生产者多消费者队列（Vyukov 算法）。
+ * <p>
+ * 每个槽位带一个序号：序号等于写入位置时可写，等于写入位置 + 1 时可读；
+ * 生产者、消费者各自只在位置计数器上做一次 CAS，队列满或空时立即返回，不阻塞。
+ *
+ * @param <E> 元素类型
+ */
+public final class MpmcRingBuffer<E> {
+
+    private final int mask;
+    private final Object[] buffer;
+    private final AtomicLongArray sequences;
+    /**
+     * 下一个读取位置
+     */
+    private final AtomicLong head = new AtomicLong();
+    /**
+     * 下一个写入位置
+     */
+    private final AtomicLong tail = new AtomicLong();
+
+    /**
+     * @param capacity 容量，向上取整为 2 的幂
+     */
+    public MpmcRingBuffer(int capacity) {
+        if (capacity < 2 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("capacity must be between 2 and 2^30");
+        }
+        int size = Integer.highestOneBit(capacity - 1) << 1;
+        this.mask = size - 1;
+        this.buffer = new Object[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @return 队列已满时返回 false
+     */
+    public boolean offer(E e) {
+        if (e == null) {
+            throw new NullPointerException();
+        }
+        long pos = tail.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    buffer[index] = e;
+                    // 发布元素，序号的写入对读取该序号的消费者建立 happens-before
+                    sequences.lazySet(index, pos + 1);
+                    return true;
+                }
+                pos = tail.get();
+            } else if (diff < 0) {
+                return false;
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * @return 队列为空时返回 null
+     */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        for (; ; ) {
+            int index = (int) pos & mask;
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E e = (E) buffer[index];
+                    buffer[index] = null;
+                    // 槽位在下一圈重新可写
+                    sequences.lazySet(index, pos + mask + 1);
+                    return e;
+                }
+                pos = head.get();
+            } else if (diff < 0) {
+                return null;
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /**
+     * 近似元素个数，并发修改时仅供监控使用
+     */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int) Math.max(0, Math.min(size, capacity()));
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,63 @@
+package lucky.sky.db.mongo.concurrent;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * 合并相同的并发调用：同一 key 正在执行时，后到的调用等待并共享其结果（或异常），不再重复执行。
+ * <p>
+ * 只合并同时进行的调用，结果不做缓存；共享的结果是同一个对象，调用方不应修改。
+ *
+ * @param <K> 调用的 key
+ * @param <V> 结果类型
+ */
+public final class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, CompletableFuture<V>> calls = new ConcurrentHashMap<>();
+    private final LongAdder executed = new LongAdder();
+    private final LongAdder shared = new LongAdder();
+
+    public V execute(K key, Supplier<V> loader) {
+        CompletableFuture<V> call = calls.get(key);
+        if (call == null) {
+            CompletableFuture<V> created = new CompletableFuture<>();
+            call = calls.putIfAbsent(key, created);
+            if (call == null) {
+                return run(key, created, loader);
+            }
+        }
+        shared.increment();
+        return MongoExecutors.await(call);
+    }
+
+    private V run(K key, CompletableFuture<V> call, Supplier<V> loader) {
+        executed.increment();
+        try {
+            V value = loader.get();
+            call.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            call.completeExceptionally(e);
+            throw e;
+        } finally {
+            calls.remove(key, call);
+        }
+    }
+
+    /**
+     * 实际执行的次数
+     */
+    public long getExecutedCount() {
+        return executed.sum();
+    }
+
+    /**
+     * 共享了其它调用结果的次数
+     */
+    public long getSharedCount() {
+        return shared.sum();
+    }
+}
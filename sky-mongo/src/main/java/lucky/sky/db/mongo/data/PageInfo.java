@@ -23,12 +23,17 @@ public class PageInfo implements PageInfoSupport {
   private int pageSize;
 
   /**
-   * 是否计算总数量
+   * 是否计算总数量，不计算时分页结果的总数为 0
    *
    * @since 0.8.8
    */
   private boolean calculatesTotalCount = true;
 
+  /**
+   * seek 分页的游标，即上一页结果的 nextCursor；为 null 表示第一页，使用时忽略 pageIndex
+   */
+  private String cursor;
+
   public PageInfo() {
     this(1, 20, 1);
   }
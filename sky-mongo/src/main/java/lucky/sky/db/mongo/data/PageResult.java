@@ -22,6 +22,11 @@ public class PageResult<T> implements PageResultSet<T>, Collection<T> {
    */
   private int totalCount;
 
+  /**
+   * 下一页的游标，仅 seek 分页时设置；为 null 表示没有下一页
+   */
+  private String nextCursor;
+
   public PageResult() {
     // default ctor
   }
@@ -57,6 +62,14 @@ public class PageResult<T> implements PageResultSet<T>, Collection<T> {
     this.totalCount = totalCount;
   }
 
+  public String getNextCursor() {
+    return nextCursor;
+  }
+
+  public void setNextCursor(String nextCursor) {
+    this.nextCursor = nextCursor;
+  }
+
   @Override
   public int size() {
     return this.items == null ? 0 : this.items.size();
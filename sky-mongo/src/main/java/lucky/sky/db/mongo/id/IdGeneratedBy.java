@@ -0,0 +1,20 @@
+package lucky.sky.db.mongo.id;
+
+import org.bson.codecs.IdGenerator;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * 实体注解，指定 _id 为空时使用的主键生成器，未标注时使用 ObjectId。
+ * <p>
+ * 生成器需要有无参构造函数，同一生成器类型在进程内只创建一个实例。
+ */
+@Target(ElementType.TYPE)
+@Retention(value = RetentionPolicy.RUNTIME)
+public @interface IdGeneratedBy {
+
+    Class<? extends IdGenerator> value();
+}
@@ -0,0 +1,70 @@
+package lucky.sky.db.mongo.id;
+
+import org.bson.codecs.IdGenerator;
+import org.bson.codecs.ObjectIdGenerator;
+import org.bson.types.ObjectId;
+
+/**
+ * 主键生成器的解析与主键类型转换
+ */
+public final class IdGenerators {
+
+    private IdGenerators() {
+    }
+
+    private static final IdGenerator DEFAULT = new ObjectIdGenerator();
+
+    /**
+     * 每个生成器类型只创建一个实例，使用同一生成器的实体共享序列
+     */
+    private static final ClassValue<IdGenerator> instances = new ClassValue<IdGenerator>() {
+        @Override
+        protected IdGenerator computeValue(Class<?> type) {
+            try {
+                return (IdGenerator) type.getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("failed to create id generator " + type.getName(), e);
+            }
+        }
+    };
+
+    /**
+     * 实体标注的生成器，未标注时返回 null
+     */
+    public static IdGenerator of(Class<?> entityClass) {
+        IdGeneratedBy ann = entityClass.getAnnotation(IdGeneratedBy.class);
+        return ann == null ? null : instances.get(ann.value());
+    }
+
+    /**
+     * 实体标注的生成器，未标注时返回 ObjectId 生成器
+     */
+    public static IdGenerator ofOrDefault(Class<?> entityClass) {
+        IdGenerator generator = of(entityClass);
+        return generator == null ? DEFAULT : generator;
+    }
+
+    /**
+     * 把生成的主键转换为主键属性的类型，无法转换时原样返回
+     */
+    public static Object convert(Object id, Class<?> type) {
+        if (id == null || type == null || type.isInstance(id)) {
+            return id;
+        }
+        if (id instanceof Number) {
+            Number n = (Number) id;
+            if (type == Long.class || type == long.class) {
+                return n.longValue();
+            } else if (type == Integer.class || type == int.class) {
+                if (n.longValue() > Integer.MAX_VALUE || n.longValue() < Integer.MIN_VALUE) {
+                    throw new IllegalStateException("generated id " + id + " overflows " + type.getName());
+                }
+                return n.intValue();
+            }
+        }
+        if (type == String.class) {
+            return id instanceof ObjectId ? ((ObjectId) id).toHexString() : id.toString();
+        }
+        return id;
+    }
+}
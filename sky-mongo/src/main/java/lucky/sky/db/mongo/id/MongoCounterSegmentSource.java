@@ -0,0 +1,49 @@
+package lucky.sky.db.mongo.id;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * 基于计数器集合的号段来源，每个序列一个文档 {_id: key, seq: 已分配的最大值}，
+ * 一次 findAndModify $inc 预留一个号段。
+ * <p>
+ * 每个序列首次使用前先用 $max 把计数器推进到 seed 给出的值（如集合中当前最大 _id），
+ * 接管已有数据时不会发出重复主键；$max 不会回退计数器，多个实例同时初始化也是安全的。
+ */
+public class MongoCounterSegmentSource implements SegmentSource {
+
+    public static final String DEFAULT_COLLECTION = "_counters";
+    private static final String SEQ_FIELD = "seq";
+
+    private final DBCollection counters;
+    private final ToLongFunction<String> seed;
+    private final Set<String> seeded = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param counters 计数器集合
+     * @param seed     序列的起始值（已被占用的最大值），为 null 时从 1 开始分配
+     */
+    public MongoCounterSegmentSource(DBCollection counters, ToLongFunction<String> seed) {
+        this.counters = counters;
+        this.seed = seed;
+    }
+
+    @Override
+    public long reserve(String key, int size) {
+        if (seed != null && !seeded.contains(key)) {
+            counters.update(new BasicDBObject("_id", key),
+                    new BasicDBObject("$max", new BasicDBObject(SEQ_FIELD, seed.applyAsLong(key))),
+                    true, false);
+            seeded.add(key);
+        }
+        DBObject counter = counters.findAndModify(new BasicDBObject("_id", key), null, null, false,
+                new BasicDBObject("$inc", new BasicDBObject(SEQ_FIELD, (long) size)), true, true);
+        long end = ((Number) counter.get(SEQ_FIELD)).longValue();
+        return end - size + 1;
+    }
+}
@@ -0,0 +1,126 @@
+package lucky.sky.db.mongo.id;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.bson.codecs.IdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 号段模式的数值主键：每次从 {@link SegmentSource} 预留一段，段内通过 AtomicLong 无锁发号。
+ * <p>
+ * 当前号段用掉 80% 时异步预取下一段，号段切换时通常无需等待数据源。
+ * 通过 {@link IdGeneratedBy} 使用时，需继承本类并提供无参构造函数指定数据源与序列名称。
+ */
+public class SegmentIdGenerator implements IdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(SegmentIdGenerator.class);
+
+    private static final ExecutorService PREFETCHER = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setNameFormat("mongo-id-segment-%d").setDaemon(true).build());
+
+    private final SegmentSource source;
+    private final String key;
+    private final int blockSize;
+
+    private volatile Segment current;
+    /**
+     * 预取中的下一个号段，只在持有 this 锁时修改
+     */
+    private CompletableFuture<Segment> next;
+
+    public SegmentIdGenerator(SegmentSource source, String key, int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("blockSize must be positive");
+        }
+        this.source = source;
+        this.key = key;
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public Object generate() {
+        return nextId();
+    }
+
+    public long nextId() {
+        for (; ; ) {
+            Segment seg = current;
+            if (seg != null) {
+                long value = seg.cursor.getAndIncrement();
+                if (value < seg.end) {
+                    if (value == seg.prefetchAt) {
+                        prefetch();
+                    }
+                    return value;
+                }
+            }
+            refill(seg);
+        }
+    }
+
+    /**
+     * 直接从数据源预留 count 个连续的值，不经过内存号段，用于批量插入
+     *
+     * @return 起始值，区间为 [start, start + count)
+     */
+    public long nextBlock(int count) {
+        return source.reserve(key, count);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    private synchronized void prefetch() {
+        if (next == null) {
+            next = CompletableFuture.supplyAsync(this::load, PREFETCHER);
+        }
+    }
+
+    /**
+     * 只有一个线程切换号段，其它线程等待后直接使用新号段
+     */
+    private synchronized void refill(Segment exhausted) {
+        if (current != exhausted) {
+            return;
+        }
+        CompletableFuture<Segment> pending = next;
+        next = null;
+        Segment seg = null;
+        if (pending != null) {
+            try {
+                seg = pending.join();
+            } catch (CompletionException e) {
+                log.warn("prefetch segment of {} failed, reserving synchronously", key, e.getCause());
+            }
+        }
+        current = seg != null ? seg : load();
+    }
+
+    private Segment load() {
+        return new Segment(source.reserve(key, blockSize), blockSize);
+    }
+
+    private static final class Segment {
+
+        final long end;
+        final long prefetchAt;
+        final AtomicLong cursor;
+
+        Segment(long start, int size) {
+            this.end = start + size;
+            this.prefetchAt = size > 1 ? start + size * 4L / 5 : -1;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package lucky.sky.db.mongo.id;
+
+/**
+ * 号段来源，每次调用原子地预留一段连续的数值
+ */
+@FunctionalInterface
+public interface SegmentSource {
+
+    /**
+     * 预留 [start, start + size) 区间
+     *
+     * @param key  序列名称，如集合名
+     * @param size 号段大小
+     * @return 号段起始值
+     */
+    long reserve(String key, int size);
+}
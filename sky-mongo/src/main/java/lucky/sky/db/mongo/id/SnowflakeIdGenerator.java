@@ -0,0 +1,91 @@
+package lucky.sky.db.mongo.id;
+
+import org.bson.codecs.IdGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 按时间有序的 64 位主键：41 位毫秒时间戳（自 2020-01-01 起）、10 位机器号、12 位序号。
+ * <p>
+ * 机器号依次读取系统属性 sky.mongo.workerId、环境变量 SKY_MONGO_WORKER_ID，都未配置时为 0，
+ * 多实例部署必须为每个实例配置不同的机器号。
+ * <p>
+ * 无锁实现：时间戳与序号合并为一个 long 做 CAS；同一毫秒序号用完或时钟回拨时沿用上一个时间戳继续递增，
+ * 保证单实例内严格递增，不会阻塞等待。
+ */
+public class SnowflakeIdGenerator implements IdGenerator {
+
+    private static final Logger log = LoggerFactory.getLogger(SnowflakeIdGenerator.class);
+
+    public static final String WORKER_ID_PROPERTY = "sky.mongo.workerId";
+    public static final String WORKER_ID_ENV = "SKY_MONGO_WORKER_ID";
+
+    /**
+     * 2020-01-01T00:00:00Z
+     */
+    private static final long EPOCH = 1577836800000L;
+    private static final int WORKER_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    public static final long MAX_WORKER_ID = (1L << WORKER_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+
+    private final long workerBits;
+    /**
+     * (时间戳 << SEQUENCE_BITS) | 序号
+     */
+    private final AtomicLong state = new AtomicLong();
+
+    public SnowflakeIdGenerator() {
+        this(resolveWorkerId());
+    }
+
+    public SnowflakeIdGenerator(long workerId) {
+        if (workerId < 0 || workerId > MAX_WORKER_ID) {
+            throw new IllegalArgumentException("workerId must be between 0 and " + MAX_WORKER_ID);
+        }
+        this.workerBits = workerId << SEQUENCE_BITS;
+    }
+
+    private static long resolveWorkerId() {
+        String value = System.getProperty(WORKER_ID_PROPERTY);
+        if (value == null || value.isEmpty()) {
+            value = System.getenv(WORKER_ID_ENV);
+        }
+        if (value == null || value.isEmpty()) {
+            log.warn("{} not configured, snowflake worker id defaults to 0", WORKER_ID_PROPERTY);
+            return 0;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    @Override
+    public Object generate() {
+        return nextId();
+    }
+
+    public long nextId() {
+        long now = (System.currentTimeMillis() - EPOCH) << SEQUENCE_BITS;
+        long prev;
+        long next;
+        do {
+            prev = state.get();
+            // 当前毫秒的首个序号，或在上一个值的基础上递增（同一毫秒、序号溢出借用下一毫秒、时钟回拨）
+            next = Math.max(now, prev + 1);
+        } while (!state.compareAndSet(prev, next));
+        long timestamp = next >>> SEQUENCE_BITS;
+        return (timestamp << (WORKER_BITS + SEQUENCE_BITS)) | workerBits | (next & SEQUENCE_MASK);
+    }
+
+    /**
+     * 主键中的毫秒时间戳
+     */
+    public static long timestampOf(long id) {
+        return (id >>> (WORKER_BITS + SEQUENCE_BITS)) + EPOCH;
+    }
+
+    public static long workerIdOf(long id) {
+        return (id >>> SEQUENCE_BITS) & MAX_WORKER_ID;
+    }
+}
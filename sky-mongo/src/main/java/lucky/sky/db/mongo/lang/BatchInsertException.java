@@ -0,0 +1,33 @@
+package lucky.sky.db.mongo.lang;
+
+import java.util.List;
+
+/**
+ * 批量插入部分失败的异常，区分已写入和未写入的主键
+ */
+public class BatchInsertException extends FaultException {
+
+  private final List<Object> insertedIds;
+  private final List<Object> failedIds;
+
+  public BatchInsertException(String message, List<Object> insertedIds, List<Object> failedIds,
+      Throwable cause) {
+    super(-1, message, cause);
+    this.insertedIds = insertedIds;
+    this.failedIds = failedIds;
+  }
+
+  /**
+   * 已经写入数据库的主键
+   */
+  public List<Object> getInsertedIds() {
+    return insertedIds;
+  }
+
+  /**
+   * 未写入的主键，与实体上已赋值的主键一致
+   */
+  public List<Object> getFailedIds() {
+    return failedIds;
+  }
+}
@@ -0,0 +1,262 @@
+package lucky.sky.db.mongo.scan;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBCursor;
+import com.mongodb.DBObject;
+import com.mongodb.MongoInterruptedException;
+import lucky.sky.db.mongo.DbEntity;
+import lucky.sky.db.mongo.MgoQuery;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.query.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * 按 _id 区间并行扫描集合：整数与 ObjectId 主键按最小、最大值均分（ObjectId 按时间戳），
+ * 其它类型按 $sample 抽样的分位点切分；每个区间使用独立游标，在专用的有界线程池中执行。
+ * <p>
+ * 实体在扫描线程中交给 consumer，consumer 需线程安全。单个区间失败（包括 consumer 抛出异常）
+ * 只记录在该区间的进度中，不影响其它区间。要求集合中的 _id 为同一类型，基础查询中不应再包含 _id 条件。
+ *
+ * @param <T> 实体类型
+ */
+public class ParallelScanner<T extends DbEntity<?>> {
+
+    private static final Logger log = LoggerFactory.getLogger(ParallelScanner.class);
+    private static final int MAX_SAMPLES = 10000;
+
+    private final DBCollection collection;
+    private final Supplier<Query<T>> queryFactory;
+    private final ScanOptions options;
+
+    /**
+     * @param collection   扫描的集合，用于计算切分点
+     * @param queryFactory 每个区间的基础查询，可带过滤条件
+     * @param options      扫描配置
+     */
+    public ParallelScanner(DBCollection collection, Supplier<Query<T>> queryFactory, ScanOptions options) {
+        this.collection = collection;
+        this.queryFactory = queryFactory;
+        this.options = options == null ? new ScanOptions() : options;
+    }
+
+    /**
+     * 计算切分点并返回初始进度；首尾区间不设边界，扫描期间新插入的文档也会被覆盖
+     */
+    public ScanProgress split() {
+        List<Object> points = splitPoints(Math.max(1, options.getSplits()));
+        List<ScanRange> ranges = new ArrayList<>(points.size() + 1);
+        for (int i = 0; i <= points.size(); i++) {
+            Object lower = i == 0 ? null : points.get(i - 1);
+            Object upper = i == points.size() ? null : points.get(i);
+            ranges.add(new ScanRange(i, lower, upper));
+        }
+        return new ScanProgress(ranges);
+    }
+
+    private List<Object> splitPoints(int splits) {
+        if (splits <= 1) {
+            return Collections.emptyList();
+        }
+        Object min = boundaryId(1);
+        Object max = boundaryId(-1);
+        if (min == null || max == null) {
+            return Collections.emptyList();
+        }
+        if ((min instanceof Integer || min instanceof Long) && min.getClass() == max.getClass()) {
+            return numericPoints(((Number) min).longValue(), ((Number) max).longValue(), splits,
+                    min instanceof Integer);
+        }
+        if (min instanceof ObjectId && max instanceof ObjectId) {
+            return objectIdPoints(((ObjectId) min).getTimestamp(), ((ObjectId) max).getTimestamp(), splits);
+        }
+        return samplePoints(splits);
+    }
+
+    private Object boundaryId(int order) {
+        try (DBCursor cursor = collection.find(new BasicDBObject(), new BasicDBObject(Mapper.ID_KEY, 1))
+                .sort(new BasicDBObject(Mapper.ID_KEY, order)).limit(1)) {
+            return cursor.hasNext() ? cursor.next().get(Mapper.ID_KEY) : null;
+        }
+    }
+
+    static List<Object> numericPoints(long min, long max, int splits, boolean asInteger) {
+        TreeSet<Long> points = new TreeSet<>();
+        for (int i = 1; i < splits; i++) {
+            long point = (long) (min + (max - (double) min) * i / splits);
+            if (point > min && point <= max) {
+                points.add(point);
+            }
+        }
+        List<Object> result = new ArrayList<>(points.size());
+        for (Long point : points) {
+            result.add(asInteger ? (Object) point.intValue() : point);
+        }
+        return result;
+    }
+
+    static List<Object> objectIdPoints(int minSeconds, int maxSeconds, int splits) {
+        TreeSet<Integer> points = new TreeSet<>();
+        for (int i = 1; i < splits; i++) {
+            int point = minSeconds + (int) ((long) (maxSeconds - minSeconds) * i / splits);
+            if (point > minSeconds) {
+                points.add(point);
+            }
+        }
+        List<Object> result = new ArrayList<>(points.size());
+        for (Integer seconds : points) {
+            // 该秒内最小的 ObjectId
+            result.add(new ObjectId(ByteBuffer.allocate(12).putInt(seconds).array()));
+        }
+        return result;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private List<Object> samplePoints(int splits) {
+        int size = Math.min(splits * 20, MAX_SAMPLES);
+        List<DBObject> pipeline = Arrays.asList(
+                new BasicDBObject("$sample", new BasicDBObject("size", size)),
+                new BasicDBObject("$project", new BasicDBObject(Mapper.ID_KEY, 1)));
+        TreeSet<Comparable> samples = new TreeSet<>();
+        try (Cursor cursor = collection.aggregate(pipeline, AggregationOptions.builder().build())) {
+            while (cursor.hasNext()) {
+                Object id = cursor.next().get(Mapper.ID_KEY);
+                if (!(id instanceof Comparable)
+                        || (!samples.isEmpty() && samples.first().getClass() != id.getClass())) {
+                    log.warn("parallel scan of {}: _id of mixed or unordered types, scanning as one range",
+                            collection.getName());
+                    return Collections.emptyList();
+                }
+                samples.add((Comparable) id);
+            }
+        }
+        List<Comparable> sorted = new ArrayList<>(samples);
+        TreeSet<Comparable> points = new TreeSet<>();
+        for (int i = 1; i < splits && !sorted.isEmpty(); i++) {
+            points.add(sorted.get(sorted.size() * i / splits));
+        }
+        if (!sorted.isEmpty()) {
+            points.remove(sorted.get(0));
+        }
+        return new ArrayList<>(points);
+    }
+
+    /**
+     * 扫描所有未完成的区间，全部结束（完成或失败）后返回；调用线程被中断时停止扫描，
+     * 等所有扫描线程退出后返回保留的进度
+     *
+     * @param progress 由 {@link #split()} 得到，或上次未完成的进度
+     * @param consumer 线程安全的实体处理函数
+     */
+    public ScanProgress scan(ScanProgress progress, Consumer<? super T> consumer) {
+        List<ScanRange> pending = new ArrayList<>();
+        for (ScanRange range : progress.getRanges()) {
+            if (!range.isDone()) {
+                pending.add(range);
+            }
+        }
+        if (pending.isEmpty()) {
+            return progress;
+        }
+        int threads = Math.max(1, Math.min(options.getParallelism(), pending.size()));
+        ExecutorService executor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                .setNameFormat("mongo-scan-" + collection.getName() + "-%d").setDaemon(true).build());
+        try {
+            List<Future<?>> futures = new ArrayList<>(pending.size());
+            for (ScanRange range : pending) {
+                futures.add(executor.submit(() -> scanRange(range, consumer)));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            log.warn("parallel scan of {} interrupted: {}", collection.getName(), progress);
+        } catch (ExecutionException e) {
+            // scanRange 已处理所有异常
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            awaitTermination(executor);
+        }
+        log.info("parallel scan of {}: {}, failed {}", collection.getName(), progress,
+                progress.getFailedRanges().size());
+        return progress;
+    }
+
+    /**
+     * 等待扫描线程全部退出（正在进行的游标读取与 consumer 调用会执行完），返回的进度不再被修改，
+     * 可直接用于续扫；调用线程的中断状态在等待结束后恢复
+     */
+    private void awaitTermination(ExecutorService executor) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                if (executor.awaitTermination(1, TimeUnit.SECONDS)) {
+                    break;
+                }
+                log.info("parallel scan of {}: waiting for scan threads to stop", collection.getName());
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void scanRange(ScanRange range, Consumer<? super T> consumer) {
+        Query<T> query = queryFactory.get();
+        if (range.getLastId() != null) {
+            query.field(Mapper.ID_KEY).greaterThan(range.getLastId());
+        } else if (range.getLower() != null) {
+            query.field(Mapper.ID_KEY).greaterThanOrEq(range.getLower());
+        }
+        if (range.getUpper() != null) {
+            query.field(Mapper.ID_KEY).lessThan(range.getUpper());
+        }
+        query.order(Mapper.ID_KEY);
+        try (Stream<T> stream = new MgoQuery<>(query).batchSize(options.getBatchSize()).stream()) {
+            Iterator<T> it = stream.iterator();
+            while (it.hasNext()) {
+                if (Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                T entity = it.next();
+                consumer.accept(entity);
+                range.advance(entity.getId());
+            }
+            range.complete();
+            log.debug("parallel scan of {}: {}", collection.getName(), range);
+        } catch (RuntimeException e) {
+            if (Thread.currentThread().isInterrupted() || e instanceof MongoInterruptedException) {
+                // 扫描被取消（shutdownNow 中断了游标读取），区间保持未完成，续扫时从 lastId 之后继续
+                log.debug("parallel scan of {}: {} cancelled", collection.getName(), range);
+                return;
+            }
+            range.fail(e);
+            log.error("parallel scan of {}: {} failed after {}", collection.getName(), range, range.getLastId(), e);
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package lucky.sky.db.mongo.scan;
+
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 并行扫描配置
+ */
+@Getter
+@Setter
+public class ScanOptions {
+
+    /**
+     * 同时扫描的区间数（线程数）
+     */
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    /**
+     * 切分的区间数，多于 parallelism 时各线程的负载更均匀
+     */
+    private int splits = Runtime.getRuntime().availableProcessors() * 4;
+    /**
+     * 游标每次读取的文档数
+     */
+    private int batchSize = 1000;
+}
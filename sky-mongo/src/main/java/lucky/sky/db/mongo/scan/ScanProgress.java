@@ -0,0 +1,87 @@
+package lucky.sky.db.mongo.scan;
+
+import com.mongodb.BasicDBList;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 并行扫描的区间划分与进度，扫描过程中可在其它线程读取。
+ * <p>
+ * 扫描中断或部分区间失败后，以同一进度再次调用 {@link ParallelScanner#scan} 只扫描未完成的部分；
+ * 跨进程重启时可通过 {@link #toDBObject()} 保存，{@link #fromDBObject(DBObject)} 恢复。
+ */
+public class ScanProgress {
+
+    private final List<ScanRange> ranges;
+
+    ScanProgress(List<ScanRange> ranges) {
+        this.ranges = Collections.unmodifiableList(ranges);
+    }
+
+    public List<ScanRange> getRanges() {
+        return ranges;
+    }
+
+    /**
+     * 已处理的文档数
+     */
+    public long getScanned() {
+        long total = 0;
+        for (ScanRange range : ranges) {
+            total += range.getScanned();
+        }
+        return total;
+    }
+
+    public int getCompletedRanges() {
+        int count = 0;
+        for (ScanRange range : ranges) {
+            if (range.isDone()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public boolean isDone() {
+        return getCompletedRanges() == ranges.size();
+    }
+
+    /**
+     * 失败（且尚未重新扫描成功）的区间
+     */
+    public List<ScanRange> getFailedRanges() {
+        List<ScanRange> failed = new ArrayList<>();
+        for (ScanRange range : ranges) {
+            if (range.getError() != null) {
+                failed.add(range);
+            }
+        }
+        return failed;
+    }
+
+    public DBObject toDBObject() {
+        BasicDBList list = new BasicDBList();
+        for (ScanRange range : ranges) {
+            list.add(range.toDBObject());
+        }
+        return new BasicDBObject("ranges", list);
+    }
+
+    public static ScanProgress fromDBObject(DBObject obj) {
+        List<ScanRange> ranges = new ArrayList<>();
+        for (Object range : (List<?>) obj.get("ranges")) {
+            ranges.add(ScanRange.fromDBObject((DBObject) range));
+        }
+        return new ScanProgress(ranges);
+    }
+
+    @Override
+    public String toString() {
+        return "scanned " + getScanned() + ", ranges " + getCompletedRanges() + "/" + ranges.size();
+    }
+}
@@ -0,0 +1,68 @@
+package lucky.sky.db.mongo.scan;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import lombok.Getter;
+
+/**
+ * 扫描区间 [lower, upper) 及其进度，边界为 null 表示不限；区间内按 _id 升序读取，
+ * 中断后从 lastId 之后继续
+ */
+@Getter
+public class ScanRange {
+
+    private final int index;
+    private final Object lower;
+    private final Object upper;
+    /**
+     * 最后一个已处理的 _id
+     */
+    private volatile Object lastId;
+    private volatile long scanned;
+    private volatile boolean done;
+    /**
+     * 最近一次扫描失败的原因，重新扫描成功后清除
+     */
+    private volatile Throwable error;
+
+    ScanRange(int index, Object lower, Object upper) {
+        this.index = index;
+        this.lower = lower;
+        this.upper = upper;
+    }
+
+    /**
+     * 以下方法只由扫描该区间的线程调用
+     */
+    void advance(Object id) {
+        lastId = id;
+        scanned++;
+    }
+
+    void complete() {
+        done = true;
+        error = null;
+    }
+
+    void fail(Throwable e) {
+        error = e;
+    }
+
+    DBObject toDBObject() {
+        return new BasicDBObject("index", index).append("lower", lower).append("upper", upper)
+                .append("lastId", lastId).append("scanned", scanned).append("done", done);
+    }
+
+    static ScanRange fromDBObject(DBObject obj) {
+        ScanRange range = new ScanRange((Integer) obj.get("index"), obj.get("lower"), obj.get("upper"));
+        range.lastId = obj.get("lastId");
+        range.scanned = ((Number) obj.get("scanned")).longValue();
+        range.done = (Boolean) obj.get("done");
+        return range;
+    }
+
+    @Override
+    public String toString() {
+        return "range " + index + " [" + lower + ", " + upper + ") scanned " + scanned + (done ? ", done" : "");
+    }
+}
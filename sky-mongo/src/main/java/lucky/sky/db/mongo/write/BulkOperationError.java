@@ -0,0 +1,39 @@
+package lucky.sky.db.mongo.write;
+
+import lombok.Getter;
+
+/**
+ * 批量写入中单个操作的错误
+ */
+@Getter
+public class BulkOperationError {
+
+    private final BulkOperationType type;
+    /**
+     * 操作对应的 _id，插入时由驱动生成的 _id 也会填入
+     */
+    private final Object id;
+    private final int code;
+    private final String message;
+    /**
+     * 是否因整批失败（网络、超时等）而未确认，而不是服务端拒绝了该操作；此时操作可能未执行，也可能已执行
+     */
+    private final boolean batchFailure;
+
+    public BulkOperationError(BulkOperationType type, Object id, int code, String message) {
+        this(type, id, code, message, false);
+    }
+
+    public BulkOperationError(BulkOperationType type, Object id, int code, String message, boolean batchFailure) {
+        this.type = type;
+        this.id = id;
+        this.code = code;
+        this.message = message;
+        this.batchFailure = batchFailure;
+    }
+
+    @Override
+    public String toString() {
+        return type + " " + id + ": [" + code + "] " + message;
+    }
+}
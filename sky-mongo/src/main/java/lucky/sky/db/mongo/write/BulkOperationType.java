@@ -0,0 +1,21 @@
+package lucky.sky.db.mongo.write;
+
+/**
+ * 批量写入中的操作类型
+ */
+public enum BulkOperationType {
+    INSERT,
+    /**
+     * 按 _id 整体替换，文档不存在时不插入
+     */
+    REPLACE,
+    /**
+     * 按 _id 整体替换，文档不存在时插入
+     */
+    UPSERT,
+    /**
+     * 按 _id 执行更新操作符（$set、$inc 等）
+     */
+    UPDATE,
+    DELETE
+}
@@ -0,0 +1,83 @@
+package lucky.sky.db.mongo.write;
+
+import com.mongodb.BulkWriteResult;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 一次或多次批量写入的汇总结果
+ */
+@Getter
+public class BulkResult {
+
+    private int batches;
+    private int operations;
+    private int insertedCount;
+    private int matchedCount;
+    private int modifiedCount;
+    private int removedCount;
+    private int upsertedCount;
+    /**
+     * 写入未确认（w=0）的批次数，这些批次不计入各项计数
+     */
+    private int unacknowledgedBatches;
+    private final List<BulkOperationError> errors = new ArrayList<>();
+
+    public boolean hasErrors() {
+        return !errors.isEmpty();
+    }
+
+    public List<BulkOperationError> getErrors() {
+        return Collections.unmodifiableList(errors);
+    }
+
+    void add(int batchOperations, BulkWriteResult result) {
+        batches++;
+        operations += batchOperations;
+        if (result == null || !result.isAcknowledged()) {
+            unacknowledgedBatches++;
+            return;
+        }
+        insertedCount += result.getInsertedCount();
+        matchedCount += result.getMatchedCount();
+        removedCount += result.getRemovedCount();
+        upsertedCount += result.getUpserts().size();
+        if (result.isModifiedCountAvailable()) {
+            modifiedCount += result.getModifiedCount();
+        }
+    }
+
+    /**
+     * 整体失败、未得到写入结果的批次
+     */
+    void addFailedBatch(int batchOperations) {
+        batches++;
+        operations += batchOperations;
+    }
+
+    void addError(BulkOperationError error) {
+        errors.add(error);
+    }
+
+    void merge(BulkResult other) {
+        batches += other.batches;
+        operations += other.operations;
+        insertedCount += other.insertedCount;
+        matchedCount += other.matchedCount;
+        modifiedCount += other.modifiedCount;
+        removedCount += other.removedCount;
+        upsertedCount += other.upsertedCount;
+        unacknowledgedBatches += other.unacknowledgedBatches;
+        errors.addAll(other.errors);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("batches=%d, operations=%d, inserted=%d, matched=%d, modified=%d, removed=%d, "
+                        + "upserted=%d, errors=%d", batches, operations, insertedCount, matchedCount,
+                modifiedCount, removedCount, upsertedCount, errors.size());
+    }
+}
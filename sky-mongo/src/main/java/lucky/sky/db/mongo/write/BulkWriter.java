@@ -0,0 +1,395 @@
+package lucky.sky.db.mongo.write;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteError;
+import com.mongodb.BulkWriteException;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
+import com.mongodb.WriteConcern;
+import lucky.sky.db.mongo.MgoUpdater;
+import lucky.sky.db.mongo.concurrent.MongoExecutors;
+import org.bson.BasicBSONEncoder;
+import org.mongodb.morphia.mapping.Mapper;
+import org.mongodb.morphia.query.UpdateOperations;
+import org.mongodb.morphia.query.UpdateOpsImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * 批量写入器，缓存插入、替换、更新、删除操作，满足 {@link BulkWriterOptions} 中任一条件时以无序批量写入发送，
+ * 同一 _id 的多个操作分在不同批次中依次发送，按添加顺序生效。
+ * <p>
+ * 线程安全；发送在调用线程（或写入线程池，见 {@link MongoExecutors#writeExecutor()}）中进行，
+ * 同一写入器的批次依次发送，添加操作不会等待正在进行的发送，除非本次添加触发了刷新。
+ * 操作的失败不会抛出，记录在 {@link BulkResult#getErrors()} 中：单个操作的错误，以及网络、超时等整体失败时
+ * 该批及之后未发送的全部操作（之后的批次不再发送）；超时刷新中的错误记录日志，并计入 {@link #getTotals()}。
+ * 用完后调用 {@link #close()} 发送剩余操作。
+ *
+ * @param <T> 实体类型
+ */
+public class BulkWriter<T> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(BulkWriter.class);
+
+    private static final ScheduledExecutorService LINGER_TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("mongo-bulk-linger-%d").setDaemon(true).build());
+
+    private final DBCollection collection;
+    private final Mapper mapper;
+    private final BulkWriterOptions options;
+    /**
+     * 插入前的处理，如分配主键
+     */
+    private final Consumer<T> beforeInsert;
+
+    /**
+     * 发送锁：同一写入器同时只有一个批次在发送
+     */
+    private final Object sendLock = new Object();
+    private List<Operation> pending = new ArrayList<>();
+    private long pendingBytes;
+    private ScheduledFuture<?> lingerTask;
+    private final BulkResult totals = new BulkResult();
+    private boolean closed;
+
+    public BulkWriter(DBCollection collection, Mapper mapper, BulkWriterOptions options,
+                      Consumer<T> beforeInsert) {
+        this.collection = collection;
+        this.mapper = mapper;
+        this.options = options == null ? new BulkWriterOptions() : options;
+        this.beforeInsert = beforeInsert;
+    }
+
+    public BulkWriter<T> insert(T entity) {
+        return add(insertOperation(entity));
+    }
+
+    /**
+     * 按 _id 整体替换已存在的文档
+     */
+    public BulkWriter<T> replace(T entity) {
+        return add(documentOperation(BulkOperationType.REPLACE, entity));
+    }
+
+    /**
+     * 按 _id 整体替换，不存在时插入
+     */
+    public BulkWriter<T> upsert(T entity) {
+        return add(documentOperation(BulkOperationType.UPSERT, entity));
+    }
+
+    /**
+     * 与 MgoDao.save 语义一致：_id 为空时插入，否则按 _id 替换或插入
+     */
+    public BulkWriter<T> save(T entity) {
+        return add(saveOperation(entity));
+    }
+
+    public BulkWriter<T> updateById(Object id, UpdateOperations<T> ops) {
+        return add(updateOperation(id, ops));
+    }
+
+    public BulkWriter<T> deleteById(Object id) {
+        return add(new Operation(BulkOperationType.DELETE, id, null, null));
+    }
+
+    /**
+     * 以下方法在调用线程中完成实体映射，得到的操作与实体后续的修改无关
+     */
+    Operation insertOperation(T entity) {
+        if (beforeInsert != null) {
+            beforeInsert.accept(entity);
+        }
+        DBObject doc = mapper.toDBObject(entity);
+        return new Operation(BulkOperationType.INSERT, doc.get("_id"), doc, null);
+    }
+
+    Operation saveOperation(T entity) {
+        Object id = mapper.getId(entity);
+        return id == null ? insertOperation(entity) : documentOperation(BulkOperationType.UPSERT, entity);
+    }
+
+    private Operation documentOperation(BulkOperationType type, T entity) {
+        DBObject doc = mapper.toDBObject(entity);
+        return new Operation(type, doc.get("_id"), doc, null);
+    }
+
+    Operation updateOperation(Object id, UpdateOperations<T> ops) {
+        UpdateOperations<T> realOps = (ops instanceof MgoUpdater) ? ((MgoUpdater<T>) ops).updateOperations() : ops;
+        DBObject update = ((UpdateOpsImpl<T>) realOps).getOps();
+        return new Operation(BulkOperationType.UPDATE, id, null, update);
+    }
+
+    BulkWriter<T> add(Operation op) {
+        op.validate();
+        boolean full;
+        synchronized (this) {
+            if (closed) {
+                throw new IllegalStateException("bulk writer is closed");
+            }
+            pending.add(op);
+            pendingBytes += options.getMaxBytes() > 0 ? op.bytes() : 0;
+            full = pending.size() >= options.getMaxOperations()
+                    || (options.getMaxBytes() > 0 && pendingBytes >= options.getMaxBytes());
+            if (!full && pending.size() == 1 && options.getLingerMillis() > 0) {
+                // 定时线程只提交任务，发送在写入线程池中进行
+                lingerTask = LINGER_TIMER.schedule(() -> MongoExecutors.writeExecutor().execute(this::lingerFlush),
+                        options.getLingerMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (full) {
+            flush();
+        }
+        return this;
+    }
+
+    /**
+     * 取出待发送操作，调用方需持有锁
+     */
+    private List<Operation> drain() {
+        List<Operation> batch = pending;
+        pending = new ArrayList<>();
+        pendingBytes = 0;
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        return batch;
+    }
+
+    private void lingerFlush() {
+        try {
+            BulkResult result = flush();
+            if (result.hasErrors()) {
+                log.error("linger flush of {}: {} of {} operations failed, first: {}", collection.getName(),
+                        result.getErrors().size(), result.getOperations(), result.getErrors().get(0));
+            }
+        } catch (RuntimeException e) {
+            log.error("linger flush of {} failed", collection.getName(), e);
+        }
+    }
+
+    /**
+     * 立即发送待发送的操作
+     *
+     * @return 本次发送的结果，没有待发送操作时各项为 0
+     */
+    public BulkResult flush() {
+        // 取出与发送在同一把发送锁内完成，同一写入器的批次按取出顺序依次到达服务端
+        synchronized (sendLock) {
+            List<Operation> batch;
+            synchronized (this) {
+                batch = drain();
+            }
+            return execute(batch);
+        }
+    }
+
+    /**
+     * 先发送已缓存的操作，再直接发送给定的操作，返回值只包含给定操作的结果，
+     * 不会被并发的超时刷新取走；供 WriteBehindQueue、UpdateCoalescer 使用
+     */
+    BulkResult write(List<Operation> ops) {
+        synchronized (sendLock) {
+            List<Operation> batch;
+            synchronized (this) {
+                if (closed) {
+                    throw new IllegalStateException("bulk writer is closed");
+                }
+                batch = drain();
+            }
+            execute(batch);
+            return execute(ops);
+        }
+    }
+
+    /**
+     * 按 maxOperations、maxBytes 切分后依次发送，调用方需持有发送锁。
+     * 无序批量写入中的操作可能以任意顺序执行，同一 _id 再次出现时另起一批，保证同一文档的操作按添加顺序生效
+     */
+    private BulkResult execute(List<Operation> batch) {
+        BulkResult result = new BulkResult();
+        Set<Object> ids = new HashSet<>();
+        int from = 0;
+        while (from < batch.size()) {
+            int to = from;
+            long bytes = 0;
+            ids.clear();
+            while (to < batch.size() && to - from < options.getMaxOperations()) {
+                Operation op = batch.get(to);
+                long size = options.getMaxBytes() > 0 ? op.bytes() : 0;
+                if (to > from && options.getMaxBytes() > 0 && bytes + size > options.getMaxBytes()) {
+                    break;
+                }
+                if (op.id != null && !ids.add(op.id)) {
+                    break;
+                }
+                bytes += size;
+                to++;
+            }
+            try {
+                result.merge(executeChunk(batch.subList(from, to)));
+            } catch (MongoException e) {
+                // 网络、超时等整体失败：本批与之后未发送的操作都记为错误，不再继续发送
+                log.error("bulk write to {} failed, {} operations not written", collection.getName(),
+                        batch.size() - from, e);
+                result.merge(failed(batch.subList(from, batch.size()), e));
+                break;
+            }
+            from = to;
+        }
+        return result;
+    }
+
+    private BulkResult failed(List<Operation> ops, MongoException e) {
+        BulkResult result = new BulkResult();
+        result.addFailedBatch(ops.size());
+        for (Operation op : ops) {
+            result.addError(new BulkOperationError(op.type, op.id(), e.getCode(), e.getMessage(), true));
+        }
+        synchronized (totals) {
+            totals.merge(result);
+        }
+        return result;
+    }
+
+    /**
+     * @throws MongoException 批量写入整体失败，单个操作的错误记录在结果中
+     */
+    private BulkResult executeChunk(List<Operation> batch) {
+        BulkResult result = new BulkResult();
+        BulkWriteOperation bulk = collection.initializeUnorderedBulkOperation();
+        for (Operation op : batch) {
+            op.appendTo(bulk);
+        }
+        try {
+            BulkWriteResult writeResult = options.getWriteConcern() == null
+                    ? bulk.execute() : bulk.execute(options.getWriteConcern());
+            result.add(batch.size(), writeResult);
+        } catch (BulkWriteException e) {
+            result.add(batch.size(), e.getWriteResult());
+            for (BulkWriteError error : e.getWriteErrors()) {
+                Operation op = batch.get(error.getIndex());
+                result.addError(new BulkOperationError(op.type, op.id(), error.getCode(), error.getMessage()));
+            }
+            if (e.getWriteConcernError() != null) {
+                log.warn("bulk write to {} write concern error: {}", collection.getName(),
+                        e.getWriteConcernError().getMessage());
+            }
+        }
+        synchronized (totals) {
+            totals.merge(result);
+        }
+        return result;
+    }
+
+    /**
+     * 配置的 WriteConcern，为 null 时使用集合默认值
+     */
+    WriteConcern writeConcern() {
+        return options.getWriteConcern();
+    }
+
+    /**
+     * 自创建以来所有批次的汇总结果（副本）
+     */
+    public BulkResult getTotals() {
+        BulkResult copy = new BulkResult();
+        synchronized (totals) {
+            copy.merge(totals);
+        }
+        return copy;
+    }
+
+    /**
+     * 发送剩余操作并返回汇总结果，之后不能再添加操作
+     */
+    public BulkResult closeAndGetTotals() {
+        synchronized (sendLock) {
+            List<Operation> batch;
+            synchronized (this) {
+                closed = true;
+                batch = drain();
+            }
+            execute(batch);
+        }
+        return getTotals();
+    }
+
+    @Override
+    public void close() {
+        closeAndGetTotals();
+    }
+
+    static final class Operation {
+
+        final BulkOperationType type;
+        final Object id;
+        final DBObject document;
+        final DBObject update;
+        private long bytes = -1;
+
+        Operation(BulkOperationType type, Object id, DBObject document, DBObject update) {
+            this.type = type;
+            this.id = id;
+            this.document = document;
+            this.update = update;
+        }
+
+        void validate() {
+            if (type != BulkOperationType.INSERT && id == null) {
+                throw new IllegalArgumentException(type + " requires a non-null _id");
+            }
+        }
+
+        Object id() {
+            // 插入时 _id 为空的文档由驱动在发送时生成
+            return id != null || document == null ? id : document.get("_id");
+        }
+
+        long bytes() {
+            if (bytes < 0) {
+                DBObject doc = document != null ? document : update;
+                bytes = doc == null ? 64 : new BasicBSONEncoder().encode(doc).length;
+            }
+            return bytes;
+        }
+
+        void appendTo(BulkWriteOperation bulk) {
+            switch (type) {
+                case INSERT:
+                    bulk.insert(document);
+                    break;
+                case REPLACE:
+                    bulk.find(new BasicDBObject("_id", id)).replaceOne(document);
+                    break;
+                case UPSERT:
+                    bulk.find(new BasicDBObject("_id", id)).upsert().replaceOne(document);
+                    break;
+                case UPDATE:
+                    bulk.find(new BasicDBObject("_id", id)).updateOne(update);
+                    break;
+                case DELETE:
+                    bulk.find(new BasicDBObject("_id", id)).removeOne();
+                    break;
+                default:
+                    throw new IllegalStateException("unknown bulk operation " + type);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package lucky.sky.db.mongo.write;
+
+import com.mongodb.WriteConcern;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 批量写入的刷新条件，任一条件满足即发送
+ */
+@Getter
+@Setter
+public class BulkWriterOptions {
+
+    /**
+     * 累计操作数
+     */
+    private int maxOperations = 1000;
+    /**
+     * 累计文档字节数，0 表示不按字节数刷新；开启后每个文档会多编码一次用于计算大小
+     */
+    private long maxBytes;
+    /**
+     * 首个未发送操作的最长等待时间（毫秒），0 表示不按时间刷新
+     */
+    private long lingerMillis;
+    /**
+     * 为 null 时使用集合默认的 WriteConcern
+     */
+    private WriteConcern writeConcern;
+}
@@ -0,0 +1,259 @@
+package lucky.sky.db.mongo.write;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.WriteConcern;
+import lucky.sky.db.mongo.concurrent.MongoExecutors;
+import org.mongodb.morphia.query.UpdateOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 更新合并器：在一个时间窗口内把同一 _id 的多次按主键更新合并为一次，窗口结束时以一次批量写入发送。
+ * <p>
+ * 合并规则见 {@link UpdateMerger}；遇到无法合并的更新时，先同步发送该 _id 已合并的部分，保证同一文档的更新顺序，
+ * 这次发送失败时已合并的部分放回待发送，异常抛给本次调用方，本次的更新不生效。
+ * <p>
+ * 更新在窗口结束前只保存在内存中：{@link #close()} 或 JVM 正常退出时发送剩余的更新，进程被强制结束时丢失。
+ * 因网络、超时等整批失败的更新合并回待发送，在下一个窗口重试（失败的请求可能已在服务端执行，$inc 可能因此重复计数）；
+ * 服务端拒绝的更新（如对非数值字段 $inc）不重试，与放回时无法合并的更新一起计入 {@link #getDroppedCount()}。
+ * 适用于计数、最近访问时间等热点字段。
+ *
+ * @param <T> 实体类型
+ */
+public class UpdateCoalescer<T> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(UpdateCoalescer.class);
+
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setNameFormat("mongo-update-coalescer-%d").setDaemon(true).build());
+
+    private final DBCollection collection;
+    private final BulkWriter<T> writer;
+    private final int maxPendingKeys;
+    private final ConcurrentMap<Object, DBObject> pending = new ConcurrentHashMap<>();
+    private final ScheduledFuture<?> timer;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+
+    private final LongAdder received = new LongAdder();
+    private final LongAdder emitted = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final Thread shutdownHook;
+
+    /**
+     * @param collection     集合，无法合并的更新直接通过它发送
+     * @param writer         批量写入器，其自动刷新条件应足够大，由本类控制刷新
+     * @param windowMillis   合并窗口（毫秒）
+     * @param maxPendingKeys 窗口内待发送的文档数上限，达到后立即发送
+     */
+    public UpdateCoalescer(DBCollection collection, BulkWriter<T> writer, long windowMillis, int maxPendingKeys) {
+        this.collection = collection;
+        this.writer = writer;
+        this.maxPendingKeys = maxPendingKeys;
+        this.timer = TIMER.scheduleWithFixedDelay(this::scheduleFlush, windowMillis, windowMillis,
+                TimeUnit.MILLISECONDS);
+        this.shutdownHook = new Thread(this::shutdown, "mongo-update-coalescer-shutdown-" + collection.getName());
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public void updateById(Object id, UpdateOperations<T> ops) {
+        BulkWriter.Operation op = writer.updateOperation(id, ops);
+        op.validate();
+        received.increment();
+        if (!tryMerge(id, op.update)) {
+            // 无法合并：取出该 _id 之前的部分在 compute 之外发送，不占用 map 的锁；
+            // 与 flush 持有同一把锁，同一 _id 的各次发送按顺序到达
+            synchronized (this) {
+                while (!tryMerge(id, op.update)) {
+                    DBObject previous = pending.remove(id);
+                    if (previous != null) {
+                        try {
+                            send(id, previous);
+                        } catch (RuntimeException e) {
+                            requeue(id, previous);
+                            throw e;
+                        }
+                    }
+                }
+            }
+        }
+        if (pending.size() >= maxPendingKeys) {
+            flush();
+        }
+    }
+
+    /**
+     * 合并到该 _id 待发送的更新中
+     *
+     * @return 无法合并时返回 false，待发送的更新保持不变
+     */
+    private boolean tryMerge(Object id, DBObject update) {
+        boolean[] merged = {true};
+        pending.compute(id, (key, current) -> {
+            if (current == null) {
+                return update;
+            }
+            DBObject result = UpdateMerger.merge(current, update);
+            if (result == null) {
+                merged[0] = false;
+                return current;
+            }
+            return result;
+        });
+        return merged[0];
+    }
+
+    private void send(Object id, DBObject update) {
+        WriteConcern writeConcern = writer.writeConcern();
+        BasicDBObject q = new BasicDBObject("_id", id);
+        if (writeConcern == null) {
+            collection.update(q, update);
+        } else {
+            collection.update(q, update, false, false, writeConcern);
+        }
+        emitted.increment();
+    }
+
+    /**
+     * 把发送失败的更新放回待发送，排在之后收到的更新之前；无法与之合并时丢弃失败的部分
+     */
+    private void requeue(Object id, DBObject failed) {
+        pending.compute(id, (key, current) -> {
+            if (current == null) {
+                return failed;
+            }
+            DBObject merged = UpdateMerger.merge(failed, current);
+            if (merged == null) {
+                dropped.increment();
+                log.error("coalesced update of {}: dropped failed update {} of {}", collection.getName(), failed, id);
+                return current;
+            }
+            return merged;
+        });
+    }
+
+    /**
+     * 立即发送当前窗口内合并后的更新；并发调用时依次执行，保证同一文档的更新按窗口顺序到达
+     */
+    public synchronized BulkResult flush() {
+        Map<Object, DBObject> batch = new LinkedHashMap<>();
+        for (Object id : pending.keySet()) {
+            DBObject update = pending.remove(id);
+            if (update != null) {
+                batch.put(id, update);
+            }
+        }
+        int count = batch.size();
+        if (count == 0) {
+            return new BulkResult();
+        }
+        List<BulkWriter.Operation> ops = new ArrayList<>(count);
+        batch.forEach((id, update) -> ops.add(new BulkWriter.Operation(BulkOperationType.UPDATE, id, null, update)));
+        BulkResult result;
+        try {
+            result = writer.write(ops);
+        } catch (RuntimeException e) {
+            batch.forEach(this::requeue);
+            throw e;
+        }
+        int retried = 0;
+        for (BulkOperationError error : result.getErrors()) {
+            if (error.isBatchFailure()) {
+                requeue(error.getId(), batch.get(error.getId()));
+                retried++;
+            } else {
+                dropped.increment();
+            }
+        }
+        emitted.add(count - retried);
+        if (result.hasErrors()) {
+            log.error("coalesced update of {}: {} of {} failed ({} will be retried), first: {}", collection.getName(),
+                    result.getErrors().size(), count, retried, result.getErrors().get(0));
+        }
+        return result;
+    }
+
+    /**
+     * 定时线程只提交任务，上一次窗口刷新未完成时跳过本次
+     */
+    private void scheduleFlush() {
+        if (pending.isEmpty() || !flushScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        MongoExecutors.writeExecutor().execute(() -> {
+            try {
+                flush();
+            } catch (RuntimeException e) {
+                log.error("coalesced update of {} failed", collection.getName(), e);
+            } finally {
+                flushScheduled.set(false);
+            }
+        });
+    }
+
+    /**
+     * 收到的更新次数
+     */
+    public long getReceivedCount() {
+        return received.sum();
+    }
+
+    /**
+     * 实际发送的更新次数，与收到次数之比即合并效果
+     */
+    public long getEmittedCount() {
+        return emitted.sum();
+    }
+
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * 服务端拒绝或无法重试而丢弃的更新数
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    /**
+     * 停止定时发送，并发送剩余的更新
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM 正在退出
+        }
+    }
+
+    private void shutdown() {
+        timer.cancel(false);
+        try {
+            flush();
+        } finally {
+            if (!pending.isEmpty()) {
+                log.error("coalesced update of {}: {} pending updates lost on close", collection.getName(),
+                        pending.size());
+            }
+        }
+    }
+}
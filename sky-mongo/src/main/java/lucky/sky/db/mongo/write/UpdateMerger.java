@@ -0,0 +1,259 @@
+package lucky.sky.db.mongo.write;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+
+import java.util.Date;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * 合并同一文档的多个更新操作：$inc 累加、$set 后写覆盖、$max / $min 取极值、$unset 覆盖之前的赋值。
+ * <p>
+ * 其它操作符（$push、$addToSet 等）或无法安全合并的组合（如同一字段先 $max 后 $inc、字段路径互为前缀）
+ * 返回 null，由调用方先发送已合并的更新。
+ */
+final class UpdateMerger {
+
+    private static final String SET = "$set";
+    private static final String INC = "$inc";
+    private static final String MAX = "$max";
+    private static final String MIN = "$min";
+    private static final String UNSET = "$unset";
+
+    private UpdateMerger() {
+    }
+
+    /**
+     * 是否只包含可合并的操作符
+     */
+    static boolean isMergeable(DBObject update) {
+        for (String op : update.keySet()) {
+            if (!SET.equals(op) && !INC.equals(op) && !MAX.equals(op) && !MIN.equals(op) && !UNSET.equals(op)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return 合并后的新更新，无法合并时返回 null；参数不会被修改
+     */
+    static BasicDBObject merge(DBObject pending, DBObject next) {
+        if (!isMergeable(pending) || !isMergeable(next)) {
+            return null;
+        }
+        BasicDBObject merged = copy(pending);
+        for (String op : next.keySet()) {
+            DBObject fields = (DBObject) next.get(op);
+            for (String field : fields.keySet()) {
+                if (!apply(merged, op, field, fields.get(field))) {
+                    return null;
+                }
+            }
+        }
+        removeEmpty(merged);
+        return merged;
+    }
+
+    private static boolean apply(BasicDBObject update, String op, String field, Object value) {
+        if (hasPathConflict(update, field)) {
+            return false;
+        }
+        switch (op) {
+            case SET:
+                remove(update, field, INC, MAX, MIN, UNSET);
+                section(update, SET).put(field, value);
+                return true;
+            case UNSET:
+                remove(update, field, SET, INC, MAX, MIN);
+                section(update, UNSET).put(field, value);
+                return true;
+            case INC:
+                return applyInc(update, field, value);
+            case MAX:
+            case MIN:
+                return applyExtreme(update, op, field, value);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean applyInc(BasicDBObject update, String field, Object value) {
+        if (!(value instanceof Number)) {
+            return false;
+        }
+        BasicDBObject set = section(update, SET);
+        if (set.containsField(field)) {
+            // 先赋值后累加，等价于赋值为两者之和
+            Object sum = add(set.get(field), (Number) value);
+            if (sum == null) {
+                return false;
+            }
+            set.put(field, sum);
+            return true;
+        }
+        if (containsField(update, UNSET, field)) {
+            // 字段被删除后累加，结果等于增量本身
+            remove(update, field, UNSET);
+            set.put(field, value);
+            return true;
+        }
+        if (containsField(update, MAX, field) || containsField(update, MIN, field)) {
+            return false;
+        }
+        BasicDBObject inc = section(update, INC);
+        if (inc.containsField(field)) {
+            Object sum = add(inc.get(field), (Number) value);
+            if (sum == null) {
+                return false;
+            }
+            inc.put(field, sum);
+        } else {
+            inc.put(field, value);
+        }
+        return true;
+    }
+
+    private static boolean applyExtreme(BasicDBObject update, String op, String field, Object value) {
+        boolean isMax = MAX.equals(op);
+        BasicDBObject set = section(update, SET);
+        if (set.containsField(field)) {
+            Integer cmp = compare(value, set.get(field));
+            if (cmp == null) {
+                return false;
+            }
+            if (isMax ? cmp > 0 : cmp < 0) {
+                set.put(field, value);
+            }
+            return true;
+        }
+        String other = isMax ? MIN : MAX;
+        if (containsField(update, INC, field) || containsField(update, other, field)
+                || containsField(update, UNSET, field)) {
+            return false;
+        }
+        BasicDBObject section = section(update, op);
+        if (section.containsField(field)) {
+            Integer cmp = compare(value, section.get(field));
+            if (cmp == null) {
+                return false;
+            }
+            if (isMax ? cmp > 0 : cmp < 0) {
+                section.put(field, value);
+            }
+        } else {
+            section.put(field, value);
+        }
+        return true;
+    }
+
+    /**
+     * 同一更新中不允许出现互为前缀的字段路径，如 a 与 a.b
+     */
+    private static boolean hasPathConflict(BasicDBObject update, String field) {
+        for (String op : update.keySet()) {
+            for (String existing : ((DBObject) update.get(op)).keySet()) {
+                if (!existing.equals(field)
+                        && (existing.startsWith(field + ".") || field.startsWith(existing + "."))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static Object add(Object current, Number delta) {
+        if (!(current instanceof Number)) {
+            return null;
+        }
+        Number a = (Number) current;
+        if (isFloating(a) || isFloating(delta)) {
+            return a.doubleValue() + delta.doubleValue();
+        }
+        if (!isIntegral(a) || !isIntegral(delta)) {
+            return null;
+        }
+        long sum;
+        try {
+            sum = Math.addExact(a.longValue(), delta.longValue());
+        } catch (ArithmeticException e) {
+            return null;
+        }
+        // 两个 int 相加且未溢出时保持 int，与服务端 $inc 的类型规则一致
+        if (a instanceof Integer && delta instanceof Integer && sum == (int) sum) {
+            return (int) sum;
+        }
+        return sum;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    static Integer compare(Object a, Object b) {
+        if (a instanceof Number && b instanceof Number) {
+            Number x = (Number) a;
+            Number y = (Number) b;
+            if (isIntegral(x) && isIntegral(y)) {
+                return Long.compare(x.longValue(), y.longValue());
+            }
+            if ((isIntegral(x) || isFloating(x)) && (isIntegral(y) || isFloating(y))) {
+                return Double.compare(x.doubleValue(), y.doubleValue());
+            }
+            return null;
+        }
+        if (a instanceof Date && b instanceof Date) {
+            return ((Date) a).compareTo((Date) b);
+        }
+        if (a instanceof Comparable && b != null && a.getClass() == b.getClass()) {
+            return ((Comparable) a).compareTo(b);
+        }
+        return null;
+    }
+
+    private static boolean isIntegral(Number n) {
+        return n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte;
+    }
+
+    private static boolean isFloating(Number n) {
+        return n instanceof Double || n instanceof Float;
+    }
+
+    private static BasicDBObject copy(DBObject update) {
+        BasicDBObject copy = new BasicDBObject();
+        for (String op : update.keySet()) {
+            copy.put(op, new BasicDBObject(((DBObject) update.get(op)).toMap()));
+        }
+        return copy;
+    }
+
+    private static BasicDBObject section(BasicDBObject update, String op) {
+        BasicDBObject section = (BasicDBObject) update.get(op);
+        if (section == null) {
+            section = new BasicDBObject();
+            update.put(op, section);
+        }
+        return section;
+    }
+
+    private static boolean containsField(BasicDBObject update, String op, String field) {
+        DBObject section = (DBObject) update.get(op);
+        return section != null && section.containsField(field);
+    }
+
+    private static void remove(BasicDBObject update, String field, String... ops) {
+        for (String op : ops) {
+            DBObject section = (DBObject) update.get(op);
+            if (section != null) {
+                section.removeField(field);
+            }
+        }
+    }
+
+    private static void removeEmpty(BasicDBObject update) {
+        Iterator<Map.Entry<String, Object>> it = update.entrySet().iterator();
+        while (it.hasNext()) {
+            if (((DBObject) it.next().getValue()).keySet().isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package lucky.sky.db.mongo.write;
+
+import com.mongodb.WriteConcern;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * 异步写入（write-behind）配置
+ */
+@Getter
+@Setter
+public class WriteBehindOptions {
+
+    /**
+     * 队列容量，向上取整为 2 的幂
+     */
+    private int capacity = 65536;
+    /**
+     * 单次批量写入的最大操作数
+     */
+    private int batchSize = 1000;
+    /**
+     * 队列为空时后台线程的等待时间（毫秒），即写入的最大额外延迟
+     */
+    private long lingerMillis = 10;
+    /**
+     * 队列满时调用方最长等待时间（毫秒），超时抛出 RejectedExecutionException；0 表示不等待
+     */
+    private long offerTimeoutMillis = 1000;
+    /**
+     * 为 null 时使用集合默认的 WriteConcern
+     */
+    private WriteConcern writeConcern;
+}
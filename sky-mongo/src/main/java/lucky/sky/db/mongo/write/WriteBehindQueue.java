@@ -0,0 +1,199 @@
+package lucky.sky.db.mongo.write;
+
+import lucky.sky.db.mongo.concurrent.MpmcRingBuffer;
+import org.mongodb.morphia.query.UpdateOperations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 异步写入（write-behind）队列：调用线程只做实体映射并放入无锁环形队列，
+ * 由一个后台线程批量取出，通过 {@link BulkWriter} 以批量写入发送，同一 _id 的操作按入队顺序生效。
+ * <p>
+ * 队列满时调用方最多等待 offerTimeoutMillis，仍无空位则抛出 RejectedExecutionException；
+ * {@link #close()} 或 JVM 退出时会先写完队列中剩余的操作。写入失败只记录日志和指标，不会通知调用方，
+ * 只适用于允许少量丢失或延迟的数据，如行为日志。
+ *
+ * @param <T> 实体类型
+ */
+public class WriteBehindQueue<T> implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(WriteBehindQueue.class);
+    private static final long BACKPRESSURE_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private final String name;
+    private final BulkWriter<T> writer;
+    private final WriteBehindOptions options;
+    private final MpmcRingBuffer<BulkWriter.Operation> queue;
+    private final Thread flusher;
+    private final Thread shutdownHook;
+    private volatile boolean running = true;
+    /**
+     * 正在入队的调用线程数
+     */
+    private final AtomicInteger producers = new AtomicInteger();
+
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder backpressureWaits = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final AtomicLong written = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+
+    /**
+     * @param name    名称，用于线程名和日志，通常为集合名
+     * @param writer  发送使用的批量写入器，其自动刷新条件应不小于 batchSize，由本队列控制刷新
+     * @param options 队列配置
+     */
+    public WriteBehindQueue(String name, BulkWriter<T> writer, WriteBehindOptions options) {
+        this.name = name;
+        this.writer = writer;
+        this.options = options;
+        this.queue = new MpmcRingBuffer<>(options.getCapacity());
+        this.flusher = new Thread(this::runFlusher, "mongo-write-behind-" + name);
+        this.flusher.setDaemon(true);
+        this.flusher.start();
+        this.shutdownHook = new Thread(this::shutdown, "mongo-write-behind-shutdown-" + name);
+        Runtime.getRuntime().addShutdownHook(shutdownHook);
+    }
+
+    public void save(T entity) {
+        enqueue(writer.saveOperation(entity));
+    }
+
+    public void insert(T entity) {
+        enqueue(writer.insertOperation(entity));
+    }
+
+    public void updateById(Object id, UpdateOperations<T> ops) {
+        enqueue(writer.updateOperation(id, ops));
+    }
+
+    private void enqueue(BulkWriter.Operation op) {
+        op.validate();
+        // 先登记再检查 running，shutdown 置 running 为 false 后等待登记数归零，保证已通过检查的写入都能被取走
+        producers.incrementAndGet();
+        try {
+            if (!running) {
+                throw new IllegalStateException("write-behind queue " + name + " is closed");
+            }
+            if (!queue.offer(op)) {
+                waitForSpace(op);
+            }
+            enqueued.increment();
+        } finally {
+            producers.decrementAndGet();
+        }
+    }
+
+    private void waitForSpace(BulkWriter.Operation op) {
+        long timeout = TimeUnit.MILLISECONDS.toNanos(options.getOfferTimeoutMillis());
+        if (timeout > 0) {
+            backpressureWaits.increment();
+            long deadline = System.nanoTime() + timeout;
+            while (System.nanoTime() < deadline && running) {
+                LockSupport.parkNanos(this, BACKPRESSURE_PARK_NANOS);
+                if (queue.offer(op)) {
+                    return;
+                }
+            }
+        }
+        rejected.increment();
+        throw new RejectedExecutionException("write-behind queue " + name + " is full, capacity "
+                + queue.capacity());
+    }
+
+    private void runFlusher() {
+        long lingerNanos = TimeUnit.MILLISECONDS.toNanos(options.getLingerMillis());
+        List<BulkWriter.Operation> batch = new ArrayList<>(options.getBatchSize());
+        while (running || !queue.isEmpty()) {
+            drainTo(batch);
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            // 不足一批时等待一段时间再取，让操作攒成较大的批次
+            if (batch.size() < options.getBatchSize() && running) {
+                LockSupport.parkNanos(this, lingerNanos);
+            }
+            batch.clear();
+        }
+    }
+
+    private void drainTo(List<BulkWriter.Operation> batch) {
+        BulkWriter.Operation op;
+        while (batch.size() < options.getBatchSize() && (op = queue.poll()) != null) {
+            batch.add(op);
+        }
+    }
+
+    private void write(List<BulkWriter.Operation> batch) {
+        long start = System.nanoTime();
+        try {
+            BulkResult result = writer.write(batch);
+            int errors = result.getErrors().size();
+            written.addAndGet(batch.size() - errors);
+            if (errors > 0) {
+                failed.addAndGet(errors);
+                log.error("write-behind {}: {} of {} operations failed, first: {}", name, errors,
+                        batch.size(), result.getErrors().get(0));
+            }
+        } catch (RuntimeException e) {
+            failed.addAndGet(batch.size());
+            log.error("write-behind {}: batch of {} operations failed", name, batch.size(), e);
+        }
+        long elapsed = System.nanoTime() - start;
+        flushes.incrementAndGet();
+        totalFlushNanos.addAndGet(elapsed);
+        maxFlushNanos.accumulateAndGet(elapsed, Math::max);
+    }
+
+    public WriteBehindStats getStats() {
+        return new WriteBehindStats(queue.size(), queue.capacity(), enqueued.sum(), backpressureWaits.sum(),
+                rejected.sum(), written.get(), failed.get(), flushes.get(), totalFlushNanos.get(),
+                maxFlushNanos.get());
+    }
+
+    /**
+     * 停止接收新的写入，等待队列中的操作全部写完
+     */
+    @Override
+    public void close() {
+        shutdown();
+        try {
+            Runtime.getRuntime().removeShutdownHook(shutdownHook);
+        } catch (IllegalStateException e) {
+            // JVM 正在退出
+        }
+    }
+
+    private void shutdown() {
+        running = false;
+        LockSupport.unpark(flusher);
+        try {
+            flusher.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        while (producers.get() > 0) {
+            LockSupport.parkNanos(this, BACKPRESSURE_PARK_NANOS);
+        }
+        // 后台线程退出后才完成入队的写入
+        List<BulkWriter.Operation> rest = new ArrayList<>();
+        for (drainTo(rest); !rest.isEmpty(); drainTo(rest)) {
+            write(rest);
+            rest.clear();
+        }
+        log.info("write-behind {} stopped: {}", name, getStats());
+    }
+}
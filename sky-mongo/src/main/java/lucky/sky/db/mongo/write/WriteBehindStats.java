@@ -0,0 +1,58 @@
+package lucky.sky.db.mongo.write;
+
+import lombok.Getter;
+
+/**
+ * 异步写入的运行指标快照
+ */
+@Getter
+public class WriteBehindStats {
+
+    /**
+     * 当前排队的操作数
+     */
+    private final int queueDepth;
+    private final int capacity;
+    private final long enqueued;
+    /**
+     * 队列满时调用方等待的次数
+     */
+    private final long backpressureWaits;
+    private final long rejected;
+    private final long written;
+    /**
+     * 单个操作失败或整批发送失败的操作数
+     */
+    private final long failed;
+    private final long flushes;
+    private final long totalFlushNanos;
+    private final long maxFlushNanos;
+
+    WriteBehindStats(int queueDepth, int capacity, long enqueued, long backpressureWaits, long rejected,
+                     long written, long failed, long flushes, long totalFlushNanos, long maxFlushNanos) {
+        this.queueDepth = queueDepth;
+        this.capacity = capacity;
+        this.enqueued = enqueued;
+        this.backpressureWaits = backpressureWaits;
+        this.rejected = rejected;
+        this.written = written;
+        this.failed = failed;
+        this.flushes = flushes;
+        this.totalFlushNanos = totalFlushNanos;
+        this.maxFlushNanos = maxFlushNanos;
+    }
+
+    /**
+     * 平均每次批量写入耗时（毫秒）
+     */
+    public double getAvgFlushMillis() {
+        return flushes == 0 ? 0 : totalFlushNanos / 1e6 / flushes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth=%d/%d, enqueued=%d, written=%d, failed=%d, rejected=%d, waits=%d, "
+                        + "flushes=%d, avgFlush=%.2fms, maxFlush=%.2fms", queueDepth, capacity, enqueued, written,
+                failed, rejected, backpressureWaits, flushes, getAvgFlushMillis(), maxFlushNanos / 1e6);
+    }
+}
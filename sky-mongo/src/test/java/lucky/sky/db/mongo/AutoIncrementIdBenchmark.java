@@ -0,0 +1,101 @@
+package lucky.sky.db.mongo;
+
+import com.mongodb.DuplicateKeyException;
+import lucky.sky.mongo.test.model.Group;
+import lucky.sky.mongo.test.model.Ticket;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.Key;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 并发自增插入：计数器号段分配（Integer / Long 主键、批量）vs 原先的查最大值再插入。
+ * <p>
+ * 需要可用的数据库，配置节通过 -Dbench.db 指定，默认 sky_read。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(16)
+@Fork(1)
+public class AutoIncrementIdBenchmark {
+
+    private static final String LEGACY_KIND = "group_legacy";
+
+    private MgoDao<Group, Integer> groupDao;
+    private MgoDao<Ticket, Long> ticketDao;
+    private AdvancedDatastore ds;
+
+    @Setup
+    public void setup() {
+        String db = System.getProperty("bench.db", "sky_read");
+        groupDao = new MgoDao<>(Group.class, Mgo.getDb(db));
+        ticketDao = new MgoDao<>(Ticket.class, Mgo.getDb(db));
+        ds = (AdvancedDatastore) Mgo.getDb(db);
+    }
+
+    @Benchmark
+    public Key<Group> counterInteger() {
+        Group group = new Group();
+        group.setUname("bench");
+        return groupDao.insertEntity(group);
+    }
+
+    @Benchmark
+    public Key<Ticket> counterLong() {
+        Ticket ticket = new Ticket();
+        ticket.setTitle("bench");
+        return ticketDao.insertEntity(ticket);
+    }
+
+    /**
+     * 100 个实体一次预留 ID、一次批量写入
+     */
+    @Benchmark
+    public Iterable<Key<Group>> counterBatch() {
+        List<Group> groups = new ArrayList<>(100);
+        for (int i = 0; i < 100; i++) {
+            Group group = new Group();
+            group.setUname("bench");
+            groups.add(group);
+        }
+        return groupDao.insertEntities(groups, null);
+    }
+
+    /**
+     * 原实现：每次插入前查询当前最大 _id，冲突时重试
+     */
+    @Benchmark
+    public Key<Group> findMaxThenInsert() {
+        Group group = new Group();
+        group.setUname("bench");
+        for (int retry = 0; ; retry++) {
+            Key<Group> last = ds.find(LEGACY_KIND, Group.class).retrievedFields(true, "_id")
+                    .order("-_id").limit(1).getKey();
+            group.setId(last == null ? 1 : (Integer) last.getId() + 1);
+            try {
+                return ds.insert(LEGACY_KIND, group);
+            } catch (DuplicateKeyException ex) {
+                if (retry >= 10) {
+                    throw ex;
+                }
+            }
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(AutoIncrementIdBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,106 @@
+package lucky.sky.db.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import lucky.sky.mongo.test.model.Ticket;
+import org.mongodb.morphia.Key;
+import org.mongodb.morphia.dao.DAO;
+import org.mongodb.morphia.query.Query;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * exists / findIds / findOneId：Morphia BasicDAO 原实现 vs 只投影 _id、带索引提示的覆盖查询。
+ * <p>
+ * 需要可用的数据库，配置节通过 -Dbench.db 指定，默认 sky_read；首次运行时向 Ticket 集合写入
+ * -Dbench.docs 个文档（默认 1000000），title 共 1000 种取值，每种约 bench.docs / 1000 个。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CoveredQueryBenchmark {
+
+    private static final DBObject HINT = new BasicDBObject("title", 1).append("_id", 1);
+
+    private MgoDao<Ticket, Long> dao;
+    private DAO<Ticket, Long> morphiaDao;
+
+    @Setup
+    public void setup() {
+        String db = System.getProperty("bench.db", "sky_read");
+        int docs = Integer.getInteger("bench.docs", 1000000);
+        dao = new MgoDao<>(Ticket.class, Mgo.getDb(db));
+        morphiaDao = dao.innerDao();
+        dao.getCollection().createIndex(HINT);
+        List<Ticket> batch = new ArrayList<>(1000);
+        for (long i = dao.count(); i < docs; i++) {
+            Ticket ticket = new Ticket();
+            ticket.setTitle("t" + (i % 1000));
+            batch.add(ticket);
+            if (batch.size() == 1000) {
+                dao.insertEntities(batch, null);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            dao.insertEntities(batch, null);
+        }
+    }
+
+    private Query<Ticket> byTitle() {
+        return dao.createQuery().filter("title", "t" + ThreadLocalRandom.current().nextInt(1000));
+    }
+
+    @Benchmark
+    public boolean existsMorphia() {
+        return morphiaDao.exists(byTitle());
+    }
+
+    @Benchmark
+    public boolean existsCovered() {
+        return dao.exists(byTitle(), HINT);
+    }
+
+    @Benchmark
+    public List<Long> findIdsMorphia() {
+        return morphiaDao.findIds(byTitle());
+    }
+
+    @Benchmark
+    public List<Long> findIdsCovered() {
+        return dao.findIds(byTitle(), HINT);
+    }
+
+    @Benchmark
+    public long[] findLongIds() {
+        return dao.findLongIds(byTitle(), HINT);
+    }
+
+    @Benchmark
+    public Key<Ticket> findOneIdMorphia() {
+        return morphiaDao.findOneId(byTitle());
+    }
+
+    @Benchmark
+    public Key<Ticket> findOneIdCovered() {
+        return dao.findOneId(byTitle(), HINT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(CoveredQueryBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,65 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.db.mongo.ObjectMethodCache.ObjectMethodUtil.FieldInfo;
+import org.junit.Test;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * 字段名索引：按顺序猜测、完美哈希定位、哈希无法区分时退化为线性查找、未映射字段
+ */
+public class FieldNameIndexTest {
+
+    private static FieldInfo[] fields(String... names) {
+        FieldInfo[] fields = new FieldInfo[names.length];
+        for (int i = 0; i < names.length; i++) {
+            fields[i] = new FieldInfo(names[i], String.class, i, i, null);
+        }
+        return fields;
+    }
+
+    private static void assertFindsAll(FieldInfo[] fields) {
+        FieldNameIndex index = new FieldNameIndex(fields);
+        for (int i = 0; i < fields.length; i++) {
+            // 新建字符串，不依赖常量池中的同一实例
+            String name = new String(fields[i].name);
+            assertSame(fields[i], index.find(name, i));
+            assertSame(fields[i], index.find(name, (i + 1) % fields.length));
+            assertSame(fields[i], index.find(name, -1));
+            assertSame(fields[i], index.find(name, fields.length));
+        }
+    }
+
+    @Test
+    public void findsEveryFieldWithAnyHint() {
+        assertFindsAll(fields("_id", "name", "age", "createTime", "updateTime", "tags", "address", "sex",
+                "status", "remark", "a", "ab", "abc"));
+    }
+
+    @Test
+    public void fallsBackWhenHashCannotSeparateNames() {
+        // 长度与首、中、尾字符都相同，任何种子下哈希都相同
+        assertFindsAll(fields("aXbc", "aYbc", "aZbc", "other"));
+    }
+
+    @Test
+    public void findsEmptyAndSingleCharNames() {
+        assertFindsAll(fields("", "x", "y"));
+    }
+
+    @Test
+    public void unmappedNamesReturnNull() {
+        FieldNameIndex index = new FieldNameIndex(fields("_id", "name", "age"));
+        assertNull(index.find("nam", 1));
+        assertNull(index.find("names", -1));
+        assertNull(index.find("className", 0));
+        FieldNameIndex linear = new FieldNameIndex(fields("aXbc", "aYbc"));
+        assertNull(linear.find("aWbc", 0));
+    }
+
+    @Test
+    public void emptyFieldList() {
+        assertNull(new FieldNameIndex(new FieldInfo[0]).find("any", 0));
+    }
+}
@@ -0,0 +1,60 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.db.mongo.id.SegmentIdGenerator;
+import lucky.sky.db.mongo.id.SnowflakeIdGenerator;
+import org.bson.codecs.ObjectIdGenerator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 多线程发号吞吐：ObjectId、Snowflake、号段（内存号段来源）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class IdGeneratorBenchmark {
+
+    private ObjectIdGenerator objectId;
+    private SnowflakeIdGenerator snowflake;
+    private SegmentIdGenerator segment;
+
+    @Setup
+    public void setup() {
+        objectId = new ObjectIdGenerator();
+        snowflake = new SnowflakeIdGenerator(1);
+        AtomicLong counter = new AtomicLong(1);
+        segment = new SegmentIdGenerator((key, size) -> counter.getAndAdd(size), "bench", 10_000);
+    }
+
+    @Benchmark
+    public Object objectId() {
+        return objectId.generate();
+    }
+
+    @Benchmark
+    public long snowflake() {
+        return snowflake.nextId();
+    }
+
+    @Benchmark
+    public long segment() {
+        return segment.nextId();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(IdGeneratorBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
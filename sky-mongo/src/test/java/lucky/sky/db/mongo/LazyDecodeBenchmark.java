@@ -0,0 +1,105 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.mongo.test.model.LazyTimeline;
+import lucky.sky.mongo.test.model.Order;
+import lucky.sky.mongo.test.model.Timeline;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 带大列表的文档解码后只读取标题：立即解码 vs 延迟解码（@Bson(lazy = true)）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LazyDecodeBenchmark {
+
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private Codec<Timeline> eagerCodec;
+    private Codec<LazyTimeline> lazyCodec;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() {
+        CodecRegistry registry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new ObjectCodecProvider()),
+                com.mongodb.MongoClient.getDefaultCodecRegistry());
+        eagerCodec = registry.get(Timeline.class);
+        lazyCodec = registry.get(LazyTimeline.class);
+
+        List<String> tags = new ArrayList<>();
+        List<Long> likes = new ArrayList<>();
+        List<Order> orders = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            tags.add("tag-" + i);
+            likes.add(10_000_000_000L + i);
+            Order order = new Order();
+            order.setId("o" + i);
+            order.setOrderNo("NO-" + i);
+            order.setUserId(i);
+            order.setAmount(1000L + i);
+            order.setTags(Arrays.asList("a", "b"));
+            orders.add(order);
+        }
+        Timeline timeline = new Timeline();
+        timeline.setId("t1");
+        timeline.setTitle("timeline");
+        timeline.setTags(tags);
+        timeline.setLikes(likes);
+        timeline.setOrders(orders);
+
+        BasicOutputBuffer buffer = new BasicOutputBuffer(64 * 1024);
+        eagerCodec.encode(new BsonBinaryWriter(buffer), timeline, EncoderContext.builder().build());
+        bytes = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public String eagerTitle() {
+        return eagerCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER_CONTEXT).getTitle();
+    }
+
+    @Benchmark
+    public String lazyTitle() {
+        return lazyCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER_CONTEXT).getTitle();
+    }
+
+    @Benchmark
+    public int eagerAll() {
+        Timeline t = eagerCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER_CONTEXT);
+        return t.getTags().size() + t.getLikes().size() + t.getOrders().size();
+    }
+
+    @Benchmark
+    public int lazyAll() {
+        LazyTimeline t = lazyCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(bytes)), DECODER_CONTEXT);
+        return t.getTags().size() + t.getLikes().size() + t.getOrders().size();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(LazyDecodeBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,74 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.mongo.test.model.Metrics;
+import lucky.sky.mongo.test.model.Order;
+import org.bson.codecs.Codec;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 64 线程并发获取元数据与 Codec：ClassValue 无锁缓存 vs 原先 synchronized + HashMap
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(64)
+@Fork(1)
+public class MetadataCacheBenchmark {
+
+    private static final HashMap<String, ObjectMethodCache.ObjectMethodUtil> LOCKED_CACHE = new HashMap<>();
+
+    private ObjectCodecProvider provider;
+    private CodecRegistry registry;
+
+    @Setup
+    public void setup() {
+        provider = new ObjectCodecProvider();
+        registry = CodecRegistries.fromRegistries(CodecRegistries.fromProviders(provider),
+                com.mongodb.MongoClient.getDefaultCodecRegistry());
+    }
+
+    @Benchmark
+    public Object classValueLookup() {
+        return ObjectMethodCache.getObjectMethodUtil(Order.class);
+    }
+
+    /**
+     * 原先的实现：全局锁 + 以类名为 key 的 HashMap
+     */
+    @Benchmark
+    public Object synchronizedLookup() {
+        return lockedGet(Order.class);
+    }
+
+    @Benchmark
+    public Codec<Metrics> providerGet() {
+        return provider.get(Metrics.class, registry);
+    }
+
+    private static synchronized ObjectMethodCache.ObjectMethodUtil lockedGet(Class<?> clazz) {
+        ObjectMethodCache.ObjectMethodUtil util = LOCKED_CACHE.get(clazz.getName());
+        if (util == null) {
+            util = new ObjectMethodCache.ObjectMethodUtil(clazz);
+            LOCKED_CACHE.put(clazz.getName(), util);
+        }
+        return util;
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(MetadataCacheBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
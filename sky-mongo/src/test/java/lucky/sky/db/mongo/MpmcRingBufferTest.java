@@ -0,0 +1,126 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.db.mongo.concurrent.MpmcRingBuffer;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 无锁环形队列：容量取整、满/空判断、跨圈复用槽位、多生产者多消费者下不丢不重
+ */
+public class MpmcRingBufferTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(2, new MpmcRingBuffer<>(2).capacity());
+        assertEquals(4, new MpmcRingBuffer<>(3).capacity());
+        assertEquals(1024, new MpmcRingBuffer<>(1000).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooSmallCapacity() {
+        new MpmcRingBuffer<>(1);
+    }
+
+    @Test
+    public void offerFailsWhenFullAndPollReturnsNullWhenEmpty() {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(4);
+        assertNull(ring.poll());
+        for (int i = 0; i < 4; i++) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(Integer.valueOf(i), ring.poll());
+        }
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void slotsAreReusedAcrossLaps() {
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(ring.offer(i));
+            assertTrue(ring.offer(-i));
+            assertEquals(Integer.valueOf(i), ring.poll());
+            assertEquals(Integer.valueOf(-i), ring.poll());
+        }
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void rejectsNull() {
+        new MpmcRingBuffer<>(4).offer(null);
+    }
+
+    @Test
+    public void concurrentProducersAndConsumersSeeEveryElementOnce() throws InterruptedException {
+        int producers = 4;
+        int consumers = 3;
+        int perProducer = 50000;
+        int total = producers * perProducer;
+        MpmcRingBuffer<Integer> ring = new MpmcRingBuffer<>(64);
+        AtomicInteger[] seen = new AtomicInteger[total];
+        for (int i = 0; i < total; i++) {
+            seen[i] = new AtomicInteger();
+        }
+        AtomicInteger consumed = new AtomicInteger();
+        ConcurrentLinkedQueue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        CountDownLatch done = new CountDownLatch(producers + consumers);
+        List<Thread> threads = new ArrayList<>();
+        for (int p = 0; p < producers; p++) {
+            int base = p * perProducer;
+            threads.add(new Thread(() -> {
+                try {
+                    for (int i = 0; i < perProducer; i++) {
+                        while (!ring.offer(base + i)) {
+                            Thread.yield();
+                        }
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        for (int c = 0; c < consumers; c++) {
+            threads.add(new Thread(() -> {
+                try {
+                    while (consumed.get() < total) {
+                        Integer e = ring.poll();
+                        if (e == null) {
+                            Thread.yield();
+                            continue;
+                        }
+                        seen[e].incrementAndGet();
+                        consumed.incrementAndGet();
+                    }
+                } catch (Throwable e) {
+                    failures.add(e);
+                } finally {
+                    done.countDown();
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        done.await();
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertEquals(total, consumed.get());
+        for (int i = 0; i < total; i++) {
+            assertEquals("element " + i, 1, seen[i].get());
+        }
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,108 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.mongo.test.model.Order;
+import org.bson.BsonBinaryWriter;
+import org.bson.BsonWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ObjectCodec 编码性能对比：按声明顺序直接写出 vs 原先每个文档构造 key-value Map 的方式
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectCodecBenchmark {
+
+    private static final EncoderContext CONTEXT = EncoderContext.builder().build();
+
+    private CodecRegistry registry;
+    private ObjectCodec<Order> codec;
+    private ObjectMethodCache.ObjectMethodUtil methodUtil;
+    private Order order;
+    private BasicOutputBuffer buffer;
+
+    @Setup
+    public void setup() {
+        registry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new ObjectCodecProvider()),
+                com.mongodb.MongoClient.getDefaultCodecRegistry());
+        codec = new ObjectCodec<>(Order.class, registry);
+        methodUtil = ObjectMethodCache.getObjectMethodUtil(Order.class);
+        buffer = new BasicOutputBuffer(1024);
+
+        order = new Order();
+        order.setId("5d3fc0ae65329f064a33f6c9");
+        order.setOrderNo("NO201907250001");
+        order.setUserId(10086);
+        order.setAmount(1999900L);
+        order.setDiscount(0.85);
+        order.setStatus("PAID");
+        order.setRemark("benchmark");
+        order.setTags(Arrays.asList("a", "b", "c"));
+    }
+
+    @Benchmark
+    public int encode() {
+        buffer.truncateToPosition(0);
+        BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        codec.encode(writer, order, CONTEXT);
+        return buffer.getPosition();
+    }
+
+    /**
+     * 原先的实现：先取出 key-value Map，再逐个按 key 写出
+     */
+    @Benchmark
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public int encodeWithKeyValueMap() {
+        buffer.truncateToPosition(0);
+        BsonBinaryWriter writer = new BsonBinaryWriter(buffer);
+        writer.writeStartDocument();
+        Map<String, Object> keyValue = methodUtil.getObjectKeyValue(order);
+        for (Map.Entry<String, Object> entry : keyValue.entrySet()) {
+            writer.writeName(entry.getKey());
+            writeValue(writer, entry.getValue());
+        }
+        writer.writeEndDocument();
+        return buffer.getPosition();
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void writeValue(BsonWriter writer, Object value) {
+        if (value == null) {
+            writer.writeNull();
+        } else if (value instanceof java.util.List) {
+            writer.writeStartArray();
+            for (Object item : (java.util.List<Object>) value) {
+                writeValue(writer, item);
+            }
+            writer.writeEndArray();
+        } else {
+            Codec codec = registry.get(value.getClass());
+            CONTEXT.encodeWithChildContext(codec, writer, value);
+        }
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(ObjectCodecBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,123 @@
+package lucky.sky.db.mongo;
+
+import org.bson.codecs.configuration.CodecConfigurationException;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 实体创建方式的选择：@BsonConstructor 优先，其次无参构造函数，最后是与属性一一对应的全参构造函数
+ */
+public class ObjectCreatorTest {
+
+    static class WithNoArgs {
+        String name;
+
+        WithNoArgs() {
+        }
+
+        WithNoArgs(String name) {
+            this.name = name;
+        }
+    }
+
+    static class PrivateNoArgs {
+        private PrivateNoArgs() {
+        }
+    }
+
+    static class AllArgs {
+        static final int IGNORED = 1;
+        final long id;
+        final String name;
+        final int count;
+
+        AllArgs(long id, String name, int count) {
+            this.id = id;
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    static class Annotated {
+        final String name;
+        final long id;
+        String extra;
+
+        Annotated() {
+            this(0, null);
+        }
+
+        @BsonConstructor
+        Annotated(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    static class NoUsableConstructor {
+        final String name;
+
+        NoUsableConstructor(String name, int unrelated) {
+            this.name = name;
+        }
+    }
+
+    abstract static class Abstract {
+    }
+
+    @Test
+    public void prefersNoArgsConstructorOverAllArgs() {
+        ObjectCreator creator = ObjectCreator.of(WithNoArgs.class);
+        assertFalse(creator.hasParameters());
+        assertTrue(creator.newInstance() instanceof WithNoArgs);
+        assertNull(((WithNoArgs) creator.newInstance()).name);
+    }
+
+    @Test
+    public void usesPrivateNoArgsConstructor() {
+        assertTrue(ObjectCreator.of(PrivateNoArgs.class).newInstance() instanceof PrivateNoArgs);
+    }
+
+    @Test
+    public void usesAllArgsConstructorMatchingFieldsByPosition() {
+        ObjectCreator creator = ObjectCreator.of(AllArgs.class);
+        assertTrue(creator.hasParameters());
+        assertEquals(3, creator.parameterCount());
+        assertEquals(0, creator.parameterIndex("id"));
+        assertEquals(2, creator.parameterIndex("count"));
+        assertEquals(-1, creator.parameterIndex("IGNORED"));
+        // 数值按参数类型转换，缺失的基本类型取默认值
+        AllArgs entity = (AllArgs) creator.newInstance(new Object[]{7, "a", null});
+        assertEquals(7L, entity.id);
+        assertEquals("a", entity.name);
+        assertEquals(0, entity.count);
+    }
+
+    @Test
+    public void annotatedConstructorWinsAndMapsParametersByName() {
+        ObjectCreator creator = ObjectCreator.of(Annotated.class);
+        assertTrue(creator.hasParameters());
+        assertEquals(0, creator.parameterIndex("id"));
+        assertEquals(1, creator.parameterIndex("name"));
+        assertEquals(-1, creator.parameterIndex("extra"));
+        Annotated entity = (Annotated) creator.newInstance(new Object[]{5L, "b"});
+        assertEquals(5L, entity.id);
+        assertEquals("b", entity.name);
+    }
+
+    @Test(expected = CodecConfigurationException.class)
+    public void failsOnDecodeWithoutUsableConstructor() {
+        ObjectCreator creator = ObjectCreator.of(NoUsableConstructor.class);
+        assertFalse(creator.hasParameters());
+        creator.newInstance();
+    }
+
+    @Test(expected = CodecConfigurationException.class)
+    public void abstractTypesCannotBeCreated() {
+        ObjectCreator.of(Abstract.class).newInstance();
+    }
+}
@@ -0,0 +1,135 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.mongo.test.model.BoxedMetrics;
+import lucky.sky.mongo.test.model.Metrics;
+import org.bson.BsonBinaryReader;
+import org.bson.BsonBinaryWriter;
+import org.bson.codecs.Codec;
+import org.bson.codecs.DecoderContext;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistries;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.io.BasicOutputBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 20 个数值属性的实体编解码：基本类型（免装箱句柄）vs 包装类型（MethodAccess + 注册表 Codec）
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrimitiveFieldBenchmark {
+
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final DecoderContext DECODER_CONTEXT = DecoderContext.builder().build();
+
+    private Codec<Metrics> metricsCodec;
+    private Codec<BoxedMetrics> boxedCodec;
+    private Metrics metrics;
+    private BoxedMetrics boxed;
+    private byte[] metricsBytes;
+    private byte[] boxedBytes;
+    private BasicOutputBuffer buffer;
+
+    @Setup
+    public void setup() {
+        CodecRegistry registry = CodecRegistries.fromRegistries(
+                CodecRegistries.fromProviders(new ObjectCodecProvider()),
+                com.mongodb.MongoClient.getDefaultCodecRegistry());
+        metricsCodec = registry.get(Metrics.class);
+        boxedCodec = registry.get(BoxedMetrics.class);
+        buffer = new BasicOutputBuffer(1024);
+
+        metrics = new Metrics();
+        metrics.setId("m1");
+        metrics.setCount1(1);
+        metrics.setCount2(2);
+        metrics.setCount3(3);
+        metrics.setCount4(4);
+        metrics.setCount5(5);
+        metrics.setCount6(6);
+        metrics.setTotal1(10_000_000_001L);
+        metrics.setTotal2(10_000_000_002L);
+        metrics.setTotal3(10_000_000_003L);
+        metrics.setTotal4(10_000_000_004L);
+        metrics.setTotal5(10_000_000_005L);
+        metrics.setTotal6(10_000_000_006L);
+        metrics.setRatio1(0.1);
+        metrics.setRatio2(0.2);
+        metrics.setRatio3(0.3);
+        metrics.setRatio4(0.4);
+        metrics.setRatio5(0.5);
+        metrics.setRatio6(0.6);
+        metrics.setFlag1(true);
+        metrics.setFlag2(false);
+
+        boxed = new BoxedMetrics();
+        boxed.setId("m1");
+        boxed.setCount1(1);
+        boxed.setCount2(2);
+        boxed.setCount3(3);
+        boxed.setCount4(4);
+        boxed.setCount5(5);
+        boxed.setCount6(6);
+        boxed.setTotal1(10_000_000_001L);
+        boxed.setTotal2(10_000_000_002L);
+        boxed.setTotal3(10_000_000_003L);
+        boxed.setTotal4(10_000_000_004L);
+        boxed.setTotal5(10_000_000_005L);
+        boxed.setTotal6(10_000_000_006L);
+        boxed.setRatio1(0.1);
+        boxed.setRatio2(0.2);
+        boxed.setRatio3(0.3);
+        boxed.setRatio4(0.4);
+        boxed.setRatio5(0.5);
+        boxed.setRatio6(0.6);
+        boxed.setFlag1(true);
+        boxed.setFlag2(false);
+
+        encodeMetrics();
+        metricsBytes = buffer.toByteArray();
+        encodeBoxed();
+        boxedBytes = buffer.toByteArray();
+    }
+
+    @Benchmark
+    public int encodeMetrics() {
+        buffer.truncateToPosition(0);
+        metricsCodec.encode(new BsonBinaryWriter(buffer), metrics, ENCODER_CONTEXT);
+        return buffer.getPosition();
+    }
+
+    @Benchmark
+    public int encodeBoxed() {
+        buffer.truncateToPosition(0);
+        boxedCodec.encode(new BsonBinaryWriter(buffer), boxed, ENCODER_CONTEXT);
+        return buffer.getPosition();
+    }
+
+    @Benchmark
+    public Metrics decodeMetrics() {
+        return metricsCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(metricsBytes)), DECODER_CONTEXT);
+    }
+
+    @Benchmark
+    public BoxedMetrics decodeBoxed() {
+        return boxedCodec.decode(new BsonBinaryReader(ByteBuffer.wrap(boxedBytes)), DECODER_CONTEXT);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(PrimitiveFieldBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,69 @@
+package lucky.sky.db.mongo;
+
+import lucky.sky.db.mongo.concurrent.MpmcRingBuffer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 异步写入队列：无锁环形队列 vs ArrayBlockingQueue，3 个生产者 1 个消费者
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RingBufferBenchmark {
+
+    private static final Object ELEMENT = new Object();
+
+    private MpmcRingBuffer<Object> ring;
+    private ArrayBlockingQueue<Object> blocking;
+
+    @Setup
+    public void setup() {
+        ring = new MpmcRingBuffer<>(65536);
+        blocking = new ArrayBlockingQueue<>(65536);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(3)
+    public boolean ringOffer() {
+        return ring.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("ring")
+    @GroupThreads(1)
+    public Object ringPoll() {
+        return ring.poll();
+    }
+
+    @Benchmark
+    @Group("blocking")
+    @GroupThreads(3)
+    public boolean blockingOffer() {
+        return blocking.offer(ELEMENT);
+    }
+
+    @Benchmark
+    @Group("blocking")
+    @GroupThreads(1)
+    public Object blockingPoll() {
+        return blocking.poll();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options opt = new OptionsBuilder()
+                .include(RingBufferBenchmark.class.getSimpleName())
+                .build();
+        new Runner(opt).run();
+    }
+}
@@ -0,0 +1,104 @@
+package lucky.sky.db.mongo;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.bson.BasicBSONEncoder;
+import org.bson.types.ObjectId;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * seek 分页游标：排序补充 _id、取值、编码解码与校验、投影中补充排序字段
+ */
+public class SeekCursorTest {
+
+    private static final DBObject SORT = new BasicDBObject("createTime", -1).append("_id", 1);
+
+    @Test
+    public void sortWithIdAppendsIdAndDropsKeysAfterIt() {
+        assertEquals(new BasicDBObject("_id", 1), SeekCursor.sortWithId(null));
+        DBObject sort = SeekCursor.sortWithId(new BasicDBObject("createTime", -1));
+        assertEquals(Arrays.asList("createTime", "_id"), new ArrayList<>(sort.keySet()));
+        sort = SeekCursor.sortWithId(new BasicDBObject("_id", -1).append("name", 1));
+        assertEquals(Arrays.asList("_id"), new ArrayList<>(sort.keySet()));
+        assertEquals(-1, sort.get("_id"));
+    }
+
+    @Test
+    public void orderStringUsesMinusForDescending() {
+        assertEquals("-createTime,_id", SeekCursor.orderString(SORT));
+    }
+
+    @Test
+    public void valuesOfReadsNestedPaths() {
+        DBObject doc = new BasicDBObject("a", new BasicDBObject("b", 3)).append("_id", 7);
+        DBObject sort = new BasicDBObject("a.b", 1).append("missing.x", 1).append("_id", 1);
+        assertEquals(Arrays.asList(3, null, 7), SeekCursor.valuesOf(doc, sort));
+    }
+
+    @Test
+    public void encodeAndDecodeRoundTrip() {
+        List<Object> values = Arrays.asList(new Date(1500000000000L), new ObjectId());
+        String cursor = SeekCursor.encode(SORT, values);
+        assertEquals(values, SeekCursor.decode(cursor, SORT));
+    }
+
+    @Test
+    public void decodeRejectsDifferentSort() {
+        String cursor = SeekCursor.encode(SORT, Arrays.asList(1, 2));
+        expectInvalid(cursor, new BasicDBObject("createTime", 1).append("_id", 1));
+        expectInvalid(cursor, new BasicDBObject("_id", 1).append("createTime", -1));
+    }
+
+    @Test
+    public void decodeRejectsMalformedCursors() {
+        expectInvalid("not a cursor!", SORT);
+        expectInvalid(rawCursor(new BasicDBObject("s", SORT)), SORT);
+        expectInvalid(rawCursor(new BasicDBObject("s", SORT).append("v", "x")), SORT);
+        expectInvalid(rawCursor(new BasicDBObject("s", "x").append("v", Arrays.asList(1, 2))), SORT);
+        expectInvalid(SeekCursor.encode(SORT, Arrays.asList(1)), SORT);
+    }
+
+    @Test
+    public void inclusiveProjectionGetsSortFields() {
+        DBObject projection = SeekCursor.withSortFields(new BasicDBObject("name", 1), SORT);
+        assertEquals(new BasicDBObject("name", 1).append("createTime", 1).append("_id", 1), projection);
+    }
+
+    @Test
+    public void inclusiveProjectionKeepsCoveringParentAndReplacesChildren() {
+        DBObject sort = new BasicDBObject("a.b", 1).append("c", 1).append("_id", 1);
+        DBObject projection = SeekCursor.withSortFields(
+                new BasicDBObject("a", 1).append("c.d", 1).append("_id", 0), sort);
+        assertEquals(new BasicDBObject("a", 1).append("c", 1).append("_id", 1), projection);
+    }
+
+    @Test
+    public void exclusiveProjectionDropsOverlappingExclusions() {
+        DBObject sort = new BasicDBObject("a.b", 1).append("c", 1).append("_id", 1);
+        DBObject projection = SeekCursor.withSortFields(
+                new BasicDBObject("a", 0).append("c.d", 0).append("big", 0).append("_id", 0), sort);
+        assertEquals(new BasicDBObject("big", 0), projection);
+    }
+
+    private static String rawCursor(DBObject doc) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(new BasicBSONEncoder().encode(doc));
+    }
+
+    private static void expectInvalid(String cursor, DBObject sort) {
+        try {
+            SeekCursor.decode(cursor, sort);
+            fail("expected IllegalArgumentException for " + cursor);
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
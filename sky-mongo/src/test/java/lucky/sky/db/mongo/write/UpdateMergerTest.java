@@ -0,0 +1,135 @@
+package lucky.sky.db.mongo.write;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.DBObject;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 更新合并规则：$inc 累加与溢出、$set / $unset 覆盖、$max / $min 取极值、无法合并的组合
+ */
+public class UpdateMergerTest {
+
+    private static BasicDBObject op(String op, String field, Object value) {
+        return new BasicDBObject(op, new BasicDBObject(field, value));
+    }
+
+    @Test
+    public void incAccumulatesAndKeepsIntWhenNoOverflow() {
+        DBObject merged = UpdateMerger.merge(op("$inc", "n", 1), op("$inc", "n", 2));
+        assertEquals(op("$inc", "n", 3), merged);
+        assertTrue(((DBObject) merged.get("$inc")).get("n") instanceof Integer);
+    }
+
+    @Test
+    public void incWidensIntToLongOnOverflow() {
+        DBObject merged = UpdateMerger.merge(op("$inc", "n", Integer.MAX_VALUE), op("$inc", "n", 1));
+        assertEquals(op("$inc", "n", Integer.MAX_VALUE + 1L), merged);
+    }
+
+    @Test
+    public void incOverflowingLongIsNotMerged() {
+        assertNull(UpdateMerger.merge(op("$inc", "n", Long.MAX_VALUE), op("$inc", "n", 1L)));
+    }
+
+    @Test
+    public void incWithDoubleBecomesDouble() {
+        assertEquals(op("$inc", "n", 1.5d), UpdateMerger.merge(op("$inc", "n", 1), op("$inc", "n", 0.5d)));
+    }
+
+    @Test
+    public void incAfterSetFoldsIntoSet() {
+        assertEquals(op("$set", "n", 15), UpdateMerger.merge(op("$set", "n", 10), op("$inc", "n", 5)));
+    }
+
+    @Test
+    public void incAfterNonNumericSetIsNotMerged() {
+        assertNull(UpdateMerger.merge(op("$set", "n", "x"), op("$inc", "n", 5)));
+    }
+
+    @Test
+    public void incAfterUnsetBecomesSetOfDelta() {
+        assertEquals(op("$set", "n", 5), UpdateMerger.merge(op("$unset", "n", ""), op("$inc", "n", 5)));
+    }
+
+    @Test
+    public void setOverridesEarlierOperators() {
+        BasicDBObject pending = op("$inc", "n", 1);
+        pending.put("$max", new BasicDBObject("m", 3));
+        BasicDBObject next = new BasicDBObject("$set", new BasicDBObject("n", 7).append("m", 1));
+        assertEquals(new BasicDBObject("$set", new BasicDBObject("n", 7).append("m", 1)),
+                UpdateMerger.merge(pending, next));
+    }
+
+    @Test
+    public void unsetOverridesEarlierSet() {
+        assertEquals(op("$unset", "n", ""), UpdateMerger.merge(op("$set", "n", 1), op("$unset", "n", "")));
+    }
+
+    @Test
+    public void maxAndMinKeepTheExtreme() {
+        assertEquals(op("$max", "n", 5), UpdateMerger.merge(op("$max", "n", 5), op("$max", "n", 3)));
+        assertEquals(op("$max", "n", 8), UpdateMerger.merge(op("$max", "n", 5), op("$max", "n", 8)));
+        assertEquals(op("$min", "n", 3), UpdateMerger.merge(op("$min", "n", 5), op("$min", "n", 3)));
+        assertEquals(op("$min", "n", 5L), UpdateMerger.merge(op("$min", "n", 5L), op("$min", "n", 9)));
+    }
+
+    @Test
+    public void maxAfterSetFoldsIntoSet() {
+        assertEquals(op("$set", "n", 7), UpdateMerger.merge(op("$set", "n", 5), op("$max", "n", 7)));
+        assertEquals(op("$set", "n", 5), UpdateMerger.merge(op("$set", "n", 5), op("$max", "n", 3)));
+        assertEquals(op("$set", "n", 3), UpdateMerger.merge(op("$set", "n", 5), op("$min", "n", 3)));
+    }
+
+    @Test
+    public void maxAgainstIncomparableSetIsNotMerged() {
+        assertNull(UpdateMerger.merge(op("$set", "n", "x"), op("$max", "n", 3)));
+    }
+
+    @Test
+    public void mixingExtremeAndIncOnOneFieldIsNotMerged() {
+        assertNull(UpdateMerger.merge(op("$max", "n", 5), op("$inc", "n", 1)));
+        assertNull(UpdateMerger.merge(op("$inc", "n", 1), op("$max", "n", 5)));
+        assertNull(UpdateMerger.merge(op("$max", "n", 5), op("$min", "n", 1)));
+        assertNull(UpdateMerger.merge(op("$unset", "n", ""), op("$max", "n", 1)));
+    }
+
+    @Test
+    public void differentFieldsAreCombined() {
+        BasicDBObject expected = op("$inc", "a", 1);
+        expected.put("$set", new BasicDBObject("b", 2));
+        assertEquals(expected, UpdateMerger.merge(op("$inc", "a", 1), op("$set", "b", 2)));
+    }
+
+    @Test
+    public void prefixPathsAreNotMerged() {
+        assertNull(UpdateMerger.merge(op("$set", "a", 1), op("$set", "a.b", 2)));
+        assertNull(UpdateMerger.merge(op("$inc", "a.b", 1), op("$unset", "a", "")));
+    }
+
+    @Test
+    public void siblingPathsWithCommonPrefixAreMerged() {
+        BasicDBObject expected = new BasicDBObject("$set", new BasicDBObject("a.b", 1).append("a.bc", 2));
+        assertEquals(expected, UpdateMerger.merge(op("$set", "a.b", 1), op("$set", "a.bc", 2)));
+    }
+
+    @Test
+    public void otherOperatorsAreNotMerged() {
+        assertFalse(UpdateMerger.isMergeable(op("$push", "tags", "x")));
+        assertNull(UpdateMerger.merge(op("$inc", "n", 1), op("$push", "tags", "x")));
+        assertNull(UpdateMerger.merge(op("$addToSet", "tags", "x"), op("$inc", "n", 1)));
+    }
+
+    @Test
+    public void argumentsAreNotModified() {
+        BasicDBObject pending = op("$inc", "n", 1);
+        BasicDBObject next = op("$inc", "n", 2);
+        UpdateMerger.merge(pending, next);
+        assertEquals(op("$inc", "n", 1), pending);
+        assertEquals(op("$inc", "n", 2), next);
+    }
+}
@@ -0,0 +1,57 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.Bson;
+
+/**
+ * 与 Metrics 字段相同，但全部使用包装类型，用于对比装箱开销
+ */
+@Getter
+@Setter
+@Bson
+public class BoxedMetrics {
+
+    @Bson("_id")
+    private String id;
+    @Bson
+    private Integer count1;
+    @Bson
+    private Integer count2;
+    @Bson
+    private Integer count3;
+    @Bson
+    private Integer count4;
+    @Bson
+    private Integer count5;
+    @Bson
+    private Integer count6;
+    @Bson
+    private Long total1;
+    @Bson
+    private Long total2;
+    @Bson
+    private Long total3;
+    @Bson
+    private Long total4;
+    @Bson
+    private Long total5;
+    @Bson
+    private Long total6;
+    @Bson
+    private Double ratio1;
+    @Bson
+    private Double ratio2;
+    @Bson
+    private Double ratio3;
+    @Bson
+    private Double ratio4;
+    @Bson
+    private Double ratio5;
+    @Bson
+    private Double ratio6;
+    @Bson
+    private Boolean flag1;
+    @Bson
+    private Boolean flag2;
+}
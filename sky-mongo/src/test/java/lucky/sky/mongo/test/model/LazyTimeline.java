@@ -0,0 +1,27 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.Bson;
+
+import java.util.List;
+
+/**
+ * 与 {@link Timeline} 相同，列表属性延迟解码
+ */
+@Getter
+@Setter
+@Bson
+public class LazyTimeline {
+
+    @Bson("_id")
+    private String id;
+    @Bson
+    private String title;
+    @Bson(lazy = true)
+    private List<String> tags;
+    @Bson(lazy = true)
+    private List<Long> likes;
+    @Bson(lazy = true)
+    private List<Order> orders;
+}
@@ -0,0 +1,57 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.Bson;
+
+/**
+ * 基准测试使用的实体，20 个基本类型数值属性
+ */
+@Getter
+@Setter
+@Bson
+public class Metrics {
+
+    @Bson("_id")
+    private String id;
+    @Bson
+    private int count1;
+    @Bson
+    private int count2;
+    @Bson
+    private int count3;
+    @Bson
+    private int count4;
+    @Bson
+    private int count5;
+    @Bson
+    private int count6;
+    @Bson
+    private long total1;
+    @Bson
+    private long total2;
+    @Bson
+    private long total3;
+    @Bson
+    private long total4;
+    @Bson
+    private long total5;
+    @Bson
+    private long total6;
+    @Bson
+    private double ratio1;
+    @Bson
+    private double ratio2;
+    @Bson
+    private double ratio3;
+    @Bson
+    private double ratio4;
+    @Bson
+    private double ratio5;
+    @Bson
+    private double ratio6;
+    @Bson
+    private boolean flag1;
+    @Bson
+    private boolean flag2;
+}
@@ -0,0 +1,33 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.Bson;
+
+import java.util.List;
+
+/**
+ * ObjectCodec 基准测试使用的实体
+ */
+@Getter
+@Setter
+@Bson
+public class Order {
+
+    @Bson("_id")
+    private String id;
+    @Bson
+    private String orderNo;
+    @Bson
+    private Integer userId;
+    @Bson
+    private Long amount;
+    @Bson
+    private Double discount;
+    @Bson
+    private String status;
+    @Bson
+    private String remark;
+    @Bson
+    private List<String> tags;
+}
@@ -0,0 +1,20 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.AutoIncrementId;
+import lucky.sky.db.mongo.DbEntity;
+import org.mongodb.morphia.annotations.Id;
+
+/**
+ * Long 主键的自增实体，号段大小 1000
+ */
+@Getter
+@Setter
+@AutoIncrementId(blockSize = 1000)
+public class Ticket implements DbEntity<Long> {
+
+    @Id
+    private Long id;
+    private String title;
+}
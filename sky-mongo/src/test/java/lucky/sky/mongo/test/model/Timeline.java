@@ -0,0 +1,27 @@
+package lucky.sky.mongo.test.model;
+
+import lombok.Getter;
+import lombok.Setter;
+import lucky.sky.db.mongo.Bson;
+
+import java.util.List;
+
+/**
+ * 基准测试使用的实体，带多个较大的列表属性，全部立即解码
+ */
+@Getter
+@Setter
+@Bson
+public class Timeline {
+
+    @Bson("_id")
+    private String id;
+    @Bson
+    private String title;
+    @Bson
+    private List<String> tags;
+    @Bson
+    private List<Long> likes;
+    @Bson
+    private List<Order> orders;
+}